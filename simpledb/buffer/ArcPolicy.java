@@ -0,0 +1,73 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * The Adaptive Replacement Cache policy of Megiddo and Modha.
+ * Resident blocks are kept in two LRU lists: T1 holds blocks
+ * referenced once recently, and T2 holds blocks referenced
+ * at least twice. The ids of blocks recently evicted from
+ * each list are remembered in the ghost lists B1 and B2.
+ * A miss that hits B1 means T1 was too small, and a miss that
+ * hits B2 means T2 was too small; the policy adapts its
+ * target size p for T1 accordingly, and replaces from T1
+ * only while T1 is larger than that target.
+ */
+public class ArcPolicy implements ReplacementPolicy {
+   private int c;
+   private int p = 0;
+   private LinkedHashSet<Integer> t1 = new LinkedHashSet<>();
+   private LinkedHashSet<Integer> t2 = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> b1 = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> b2 = new LinkedHashSet<>();
+
+   public ArcPolicy(int nframes) {
+      c = nframes;
+   }
+
+   public void assigned(int frame, BlockId blk) {
+      if (b1.remove(blk)) {
+         p = Math.min(c, p + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+         t2.add(frame);
+      }
+      else if (b2.remove(blk)) {
+         p = Math.max(0, p - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+         t2.add(frame);
+      }
+      else
+         t1.add(frame);
+   }
+
+   public void accessed(int frame) {
+      if (t1.remove(frame) || t2.remove(frame))
+         t2.add(frame);
+   }
+
+   public void evicted(int frame, BlockId blk) {
+      if (t1.remove(frame))
+         b1.add(blk);
+      else if (t2.remove(frame))
+         b2.add(blk);
+      // the directory holds at most c entries of T1 and B1, and 2c in all
+      while (!b1.isEmpty() && t1.size() + b1.size() > c)
+         b1.remove(b1.iterator().next());
+      while (!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() > 2 * c)
+         b2.remove(b2.iterator().next());
+   }
+
+   public int victim(IntPredicate replaceable) {
+      LinkedHashSet<Integer> first = (!t1.isEmpty() && t1.size() > p) || t2.isEmpty() ? t1 : t2;
+      LinkedHashSet<Integer> second = (first == t1) ? t2 : t1;
+      int frame = oldest(first, replaceable);
+      return (frame >= 0) ? frame : oldest(second, replaceable);
+   }
+
+   private int oldest(LinkedHashSet<Integer> list, IntPredicate replaceable) {
+      for (int frame : list)
+         if (replaceable.test(frame))
+            return frame;
+      return -1;
+   }
+}
@@ -0,0 +1,77 @@
+package simpledb.buffer;
+
+/**
+ * A daemon thread that trickles modified buffers to disk,
+ * so that a transaction that needs a buffer, or that commits,
+ * usually finds the pages already clean.
+ * Each round writes at most a fixed number of unpinned buffers,
+ * lowest LSN first, and rounds are separated by a fixed
+ * interval, which limits the I/O bandwidth the writer uses.
+ * Pages are written from copies taken in batches of up to
+ * BATCH_SIZE pages, after the log has been flushed once past
+ * every change in the batch's copies.
+ * A writer having 0 pages per round never starts its thread,
+ * but can still be asked to write every modified buffer,
+ * as a shutdown does, or the buffers modified before an LSN,
+ * as a checkpoint does.
+ */
+public class BackgroundWriter extends PeriodicDaemon {
+   public static int BATCH_SIZE = 32;
+   private BufferMgr bm;
+   private int pagesPerRound;
+   private Buffer.PageCopy[] copies;
+
+   /**
+    * Create a writer for the buffers of the buffer manager.
+    * @param bm the buffer manager
+    * @param pagesPerRound the maximum number of pages to write in a round
+    * @param interval the number of milliseconds between rounds
+    */
+   public BackgroundWriter(BufferMgr bm, int pagesPerRound, long interval) {
+      super("simpledb-bgwriter", interval);
+      this.bm = bm;
+      this.pagesPerRound = pagesPerRound;
+      this.copies = new Buffer.PageCopy[BATCH_SIZE];
+      for (int i = 0; i < BATCH_SIZE; i++)
+         copies[i] = new Buffer.PageCopy(bm.getFileMgr().blockSize());
+   }
+
+   /**
+    * Start the writer thread, unless the writer is disabled.
+    */
+   @Override
+   public synchronized void start() {
+      if (pagesPerRound > 0)
+         super.start();
+   }
+
+   /**
+    * Write every buffer that is modified and unpinned.
+    * @return the number of buffers written
+    */
+   public synchronized int checkpoint() {
+      return bm.writeDirtyBuffers(Integer.MAX_VALUE, copies);
+   }
+
+   /**
+    * Write every modified, unpinned buffer whose earliest
+    * unwritten change precedes the specified LSN.
+    * A checkpoint passes the begin LSN of the previous one, so
+    * only the pages that have stayed dirty for a whole checkpoint
+    * interval are written, rather than the whole pool at once.
+    * @param lsn the LSN that the recovery LSN of a written buffer precedes
+    * @return the number of buffers written
+    */
+   public synchronized int writeBefore(long lsn) {
+      return bm.writeDirtyBuffers(Integer.MAX_VALUE, lsn, copies);
+   }
+
+   /**
+    * Write a round of buffers; a buffer that fails to be written
+    * stays modified, and its transaction or a later round writes it.
+    */
+   @Override
+   protected synchronized void runTask() {
+      bm.writeDirtyBuffers(pagesPerRound, copies);
+   }
+}
@@ -18,13 +18,31 @@ public class Buffer {
    private Page contents;
    private BlockId blk = null;
    private int pins = 0;
-   private int txnum = -1;
-   private int lsn = -1;
+   private volatile int txnum = -1;
+   private volatile long lsn = -1;
+   private long recLSN = -1;      // the LSN of the earliest logged change not yet written
+   private int pendingChanges = 0; // changes being logged, not yet made
+   private boolean loading = false;
+   private long version = 0; // the number of modifications
+   private long writes = 0;  // the number of times the page has been written
+   private final Object writeLock = new Object();
+   BufferMgr owner; // the pool that holds this buffer, if any
 
    public Buffer(FileMgr fm, LogMgr lm) {
+      this(fm, lm, new Page(fm.blockSize()));
+   }
+
+   /**
+    * Create a buffer that holds its blocks in the specified page,
+    * which must have the block size.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param contents the page of the buffer
+    */
+   public Buffer(FileMgr fm, LogMgr lm, Page contents) {
       this.fm = fm;
       this.lm = lm;
-      contents = new Page(fm.blockSize());
+      this.contents = contents;
    }
 
    public Page contents() {
@@ -35,10 +53,36 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
-      this.txnum = txnum;
-      if (lsn >= 0)
-         this.lsn = lsn;
+   /**
+    * Note that a change to the buffer is about to be logged.
+    * Until setModified records the change, the buffer counts as
+    * modified since the specified LSN, and writing the buffer
+    * does not clear that, so a checkpoint taken meanwhile
+    * cannot leave the buffer out of its dirty page table.
+    * @param lsn an LSN no later than that of the change's log record
+    */
+   public synchronized void beginChange(long lsn) {
+      if (recLSN < 0)
+         recLSN = lsn;
+      pendingChanges++;
+   }
+
+   public void setModified(int txnum, long lsn) {
+      int previous;
+      synchronized (this) {
+         previous = this.txnum;
+         this.txnum = txnum;
+         if (lsn >= 0) {
+            this.lsn = lsn;
+            if (recLSN < 0)
+               recLSN = lsn;
+            if (pendingChanges > 0)
+               pendingChanges--;
+         }
+         version++;
+      }
+      if (previous != txnum && owner != null)
+         owner.noteModified(txnum, this);
    }
 
    public boolean isPinned() {
@@ -53,14 +97,123 @@ public class Buffer {
       flush();
       blk = b;
       fm.read(blk, contents);
+      lsn = contents.pageLsn();
+      pins = 0;
+   }
+
+   /**
+    * Assign the buffer to the block without reading it yet.
+    * The buffer must be unmodified. It stays in the loading
+    * state until its page is filled and finishLoading() is called,
+    * and in that state it may be neither pinned nor replaced.
+    * @param b a reference to the block being prefetched
+    */
+   void assignForLoading(BlockId b) {
+      blk = b;
+      pins = 0;
+      loading = true;
+   }
+
+   void finishLoading() {
+      lsn = contents.pageLsn();
+      loading = false;
+   }
+
+   /**
+    * Detach the buffer from its block, as if it had never
+    * been used. Called when a prefetch fails.
+    */
+   void clear() {
+      blk = null;
       pins = 0;
+      loading = false;
+   }
+
+   boolean isLoading() {
+      return loading;
    }
 
    void flush() {
-      if (txnum >= 0) {
-         lm.flush(lsn);
-         fm.write(blk, contents);
-         txnum = -1;
+      synchronized (writeLock) {
+         if (txnum >= 0) {
+            lm.flush(lsn);
+            fm.write(blk, contents, lsn);
+            writes++;
+            synchronized (this) {
+               txnum = -1;
+               if (pendingChanges == 0)
+                  recLSN = -1;
+            }
+         }
+      }
+   }
+
+   /**
+    * Copy the buffer's page, if it is modified, so that the copy
+    * can be written by writeCopy while a transaction may still be
+    * modifying the buffer, as a background writer does.
+    * The caller copies a whole batch of buffers, and then flushes
+    * the log through its latest record once, so that every change
+    * present in the copies is logged before they are written.
+    * @param copy the copy to fill
+    * @return true if the buffer was modified and has been copied
+    */
+   boolean copyForWrite(PageCopy copy) {
+      synchronized (writeLock) {
+         synchronized (this) {
+            if (txnum < 0)
+               return false;
+            copy.version = version;
+            copy.lsn = lsn;
+         }
+         copy.writes = writes;
+         copy.page.copyFrom(contents);
+         return true;
+      }
+   }
+
+   /**
+    * Write a copy taken by copyForWrite, once the log has been
+    * flushed past the changes it holds.
+    * The copy is stamped with the LSN the buffer had before the
+    * copy was taken, which may understate but never overstate
+    * the changes it holds. The copy is not written if the page
+    * has been written since the copy was taken, since that write
+    * was of a later state.
+    * The buffer is marked clean only if it was not modified
+    * after the copy was taken.
+    * @param copy a copy of the buffer's page
+    * @return true if the copy was written
+    */
+   boolean writeCopy(PageCopy copy) {
+      synchronized (writeLock) {
+         if (writes != copy.writes)
+            return false;
+         fm.write(blk, copy.page, copy.lsn);
+         writes++;
+         synchronized (this) {
+            if (version == copy.version) {
+               txnum = -1;
+               if (pendingChanges == 0)
+                  recLSN = -1;
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * A copy of a buffer's page, taken to be written in a batch,
+    * with the state of the buffer when the copy was taken.
+    */
+   static class PageCopy {
+      final Page page;
+      long version;
+      long lsn;
+      long writes;
+
+      PageCopy(int blocksize) {
+         page = new Page(blocksize);
       }
    }
 
@@ -72,8 +225,22 @@ public class Buffer {
       pins--;
    }
 
-   // Added method to access the LSN of the buffer
-   public int getLSN() {
+   /**
+    * Return the LSN of the latest log record for the buffer's page,
+    * which is stamped in the page when it is written.
+    * @return the page LSN
+    */
+   public long getLSN() {
       return lsn;
    }
+
+   /**
+    * Return the LSN of the earliest logged change to the buffer
+    * that has not been written, or -1 if there is none.
+    * This is the buffer's entry in the dirty page table.
+    * @return the recovery LSN of the buffer
+    */
+   synchronized long recLSN() {
+      return recLSN;
+   }
 }
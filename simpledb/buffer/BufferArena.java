@@ -0,0 +1,60 @@
+package simpledb.buffer;
+
+import java.nio.ByteBuffer;
+import simpledb.file.Page;
+
+/**
+ * One large off-heap region that holds the pages of a buffer pool.
+ * The region is allocated as a few big direct byte buffers,
+ * each aligned to the OS page size, and each frame's page is a
+ * slice of one of them. Compared with allocating every page
+ * separately, this makes a single allocation per chunk,
+ * and leaves the garbage collector only a few direct buffers
+ * to track however large the pool is.
+ */
+public class BufferArena {
+   public static int CHUNK_SIZE = 1 << 30; // 1 GB; a direct buffer holds at most 2 GB
+   private static final int OS_PAGE_SIZE = 4096;
+
+   private ByteBuffer[] chunks;
+   private int blocksize;
+   private int framesPerChunk;
+   private int nframes;
+
+   /**
+    * Allocate an arena large enough for the specified
+    * number of frames of the specified size.
+    * @param blocksize the size of each frame
+    * @param nframes the number of frames
+    */
+   public BufferArena(int blocksize, int nframes) {
+      this.blocksize = blocksize;
+      this.nframes = nframes;
+      framesPerChunk = Math.max(1, CHUNK_SIZE / blocksize);
+      int nchunks = (nframes + framesPerChunk - 1) / framesPerChunk;
+      chunks = new ByteBuffer[nchunks];
+      for (int i = 0; i < nchunks; i++) {
+         int frames = Math.min(framesPerChunk, nframes - i * framesPerChunk);
+         chunks[i] = ByteBuffer.allocateDirect(frames * blocksize + OS_PAGE_SIZE)
+                               .alignedSlice(OS_PAGE_SIZE);
+      }
+   }
+
+   /**
+    * Return a page whose contents are the specified frame of the arena.
+    * @param frame the frame number
+    * @return a page backed by that frame
+    */
+   public Page frame(int frame) {
+      ByteBuffer chunk = chunks[frame / framesPerChunk];
+      return new Page(chunk.slice((frame % framesPerChunk) * blocksize, blocksize));
+   }
+
+   /**
+    * Return the number of frames in the arena.
+    * @return the number of frames
+    */
+   public int frames() {
+      return nframes;
+   }
+}
@@ -0,0 +1,11 @@
+package simpledb.buffer;
+
+/**
+ * A runtime exception indicating that a pin was cancelled
+ * because its thread was interrupted while it waited for a buffer.
+ * The interrupt status is cleared, so that the transaction can
+ * still roll back; a caller that needs to tell cancellation from
+ * a pool that stayed full catches this subclass.
+ */
+@SuppressWarnings("serial")
+public class BufferInterruptedException extends BufferAbortException {}
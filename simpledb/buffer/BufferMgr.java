@@ -4,29 +4,282 @@ import simpledb.file.*;
 import simpledb.log.LogMgr;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class BufferMgr {
    private Buffer[] bufferpool;
    private int numAvailable;
    private Map<BlockId, Buffer> bufferPoolMap;
-   private static final long MAX_TIME = 10000; // 10 seconds
-   private Deque<Buffer> lruQueue; // For LRU strategy
+   static final long MAX_TIME = 10000; // 10 seconds
+   private long maxWait = MAX_TIME;
+   private Deque<Waiter> waiters = new ArrayDeque<>();
+   private int promised = 0; // unpinned buffers set aside for woken waiters
+   private int maxQueueLength = 0;
+   private long pinWaits = 0, pinTimeouts = 0, pinWaitNanos = 0;
+   private long[] waitHistogram = new long[BufferPoolStats.WAIT_BUCKET_MILLIS.length + 1];
+   private long hits = 0, misses = 0, prefetches = 0;
+   private long cleanEvictions = 0, dirtyEvictions = 0;
+   private ReplacementPolicy policy;
+   private Map<Buffer, Integer> frames; // the frame number of each buffer
+   private Deque<Integer> unusedFrames;
+   private boolean[] prefetched; // loaded but not yet pinned
    private FileMgr fm; // File manager for file operations
+   private LogMgr lm;
+   private Prefetcher prefetcher;
 
    // New attribute for buffer reservation
    private Map<TransactionId, Set<Buffer>> reservedBuffers;
 
+   // The buffers each transaction has modified,
+   // so that commit need not scan the pool.
+   private Map<Integer, Set<Buffer>> modifiedBy = new ConcurrentHashMap<>();
+
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
+      this(fm, lm, numbuffs, "lru");
+   }
+
+   /**
+    * Create a buffer manager whose buffers are replaced
+    * according to the named policy.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @see ReplacementPolicy#create(String, int)
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, String policyname) {
+      this(fm, lm, numbuffs, policyname, false);
+   }
+
+   /**
+    * Create a buffer manager whose pages may all be
+    * slices of a single off-heap arena.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policyname the name of the replacement policy
+    * @param useArena whether to allocate the pages from one arena
+    * @see BufferArena
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, String policyname, boolean useArena) {
+      this(fm, lm, allocatePages(fm.blockSize(), numbuffs, useArena), policyname);
+   }
+
+   /**
+    * Create a buffer manager whose buffers hold the specified pages.
+    */
+   BufferMgr(FileMgr fm, LogMgr lm, Page[] pages, String policyname) {
+      int numbuffs = pages.length;
       this.fm = fm;
+      this.lm = lm;
       this.bufferpool = new Buffer[numbuffs];
       this.numAvailable = numbuffs;
       this.bufferPoolMap = new HashMap<>();
-      this.lruQueue = new ArrayDeque<>();
+      this.policy = ReplacementPolicy.create(policyname, numbuffs);
+      this.frames = new IdentityHashMap<>();
+      this.unusedFrames = new ArrayDeque<>();
+      this.prefetched = new boolean[numbuffs];
       this.reservedBuffers = new HashMap<>();
+      this.prefetcher = new Prefetcher(this, 0);
 
       // Initialize buffer pool
+      for (int i = 0; i < numbuffs; i++) {
+         bufferpool[i] = new Buffer(fm, lm, pages[i]);
+         bufferpool[i].owner = this;
+         frames.put(bufferpool[i], i);
+         unusedFrames.add(i);
+      }
+   }
+
+   /**
+    * Allocate the pages for a pool, either separately or
+    * as the frames of one arena.
+    * @param blocksize the size of a page
+    * @param numbuffs the number of pages
+    * @param useArena whether to allocate the pages from one arena
+    * @return the pages
+    */
+   static Page[] allocatePages(int blocksize, int numbuffs, boolean useArena) {
+      Page[] pages = new Page[numbuffs];
+      BufferArena arena = null;
+      if (useArena && numbuffs > 0)
+         arena = new BufferArena(blocksize, numbuffs);
       for (int i = 0; i < numbuffs; i++)
-         bufferpool[i] = new Buffer();
+         pages[i] = (arena != null) ? arena.frame(i) : new Page(blocksize);
+      return pages;
+   }
+
+   /**
+    * Pin a buffer to the specified block, waiting until a buffer
+    * becomes available if necessary.
+    * A pin that needs a buffer joins the end of a FIFO queue if
+    * other pins are already waiting, so that a steady stream of
+    * new pins cannot starve them; a pin of a resident block
+    * needs no buffer and never queues behind them.
+    * A waiting thread is parked, not blocked on a monitor.
+    * The thread that frees a buffer only promises it to the
+    * first waiter and wakes it; the waiter does its own
+    * replacement, so an unpin never waits for disk I/O.
+    * A waiter for a block that becomes resident is handed
+    * the pinned buffer directly.
+    * If no buffer is handed over within the maximum wait,
+    * then a {@link BufferAbortException} is thrown.
+    * If the thread is interrupted while it waits, the pin is
+    * cancelled by a {@link BufferInterruptedException}, which
+    * does not count as a timeout. The interrupt status is
+    * cleared, since a set status would make the rollback that
+    * follows fail in its log and file I/O.
+    * @param blk a reference to a disk block
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk) {
+      Waiter w;
+      synchronized (this) {
+         if ((waiters.isEmpty() && promised == 0) || isResident(blk)) {
+            Buffer buff = tryToPin(blk);
+            if (buff != null)
+               return buff;
+         }
+         w = new Waiter(blk);
+         waiters.add(w);
+         pinWaits++;
+         maxQueueLength = Math.max(maxQueueLength, waiters.size());
+      }
+      long start = System.nanoTime();
+      long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWait);
+      boolean interrupted = false;
+      while (true) {
+         while (w.granted == null && !w.promised) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0)
+               break;
+            if (Thread.interrupted()) {
+               interrupted = true;
+               break;
+            }
+            LockSupport.parkNanos(this, remaining);
+         }
+         synchronized (this) {
+            if (w.promised) {
+               w.promised = false;
+               promised--;
+               if (!interrupted && w.granted == null) {
+                  Buffer buff;
+                  try {
+                     buff = tryToPin(w.blk);
+                  }
+                  catch(RuntimeException e) {
+                     grantWaiters();
+                     recordWait(start);
+                     throw e;
+                  }
+                  if (buff != null) {
+                     recordWait(start);
+                     return buff;
+                  }
+                  // the buffer went to a block being loaded; wait again at the head
+                  waiters.addFirst(w);
+                  if (deadline - System.nanoTime() > 0)
+                     continue;
+                  waiters.remove(w);
+               }
+               grantWaiters(); // pass the promise on
+            }
+            recordWait(start);
+            if (w.granted != null)
+               return w.granted;
+            waiters.remove(w);
+            if (interrupted)
+               throw new BufferInterruptedException();
+            pinTimeouts++;
+            throw new BufferAbortException();
+         }
+      }
+   }
+
+   private void recordWait(long start) {
+      long waited = System.nanoTime() - start;
+      pinWaitNanos += waited;
+      waitHistogram[BufferPoolStats.bucket(waited)]++;
+   }
+
+   /**
+    * Set the longest time a pin waits for a buffer.
+    * @param millis the maximum wait in milliseconds
+    */
+   public synchronized void setMaxWait(long millis) {
+      maxWait = millis;
+   }
+
+   /**
+    * Return the number of pins waiting for a buffer.
+    * @return the length of the wait queue
+    */
+   public synchronized int waitQueueLength() {
+      return waiters.size();
+   }
+
+   /**
+    * Return the longest the wait queue has been.
+    * @return the maximum length of the wait queue
+    */
+   public synchronized int maxWaitQueueLength() {
+      return maxQueueLength;
+   }
+
+   /**
+    * Return the number of pins that have had to wait for a buffer.
+    * @return the number of waits
+    */
+   public synchronized long pinWaits() {
+      return pinWaits;
+   }
+
+   /**
+    * Return the number of pins that gave up waiting.
+    * @return the number of timeouts
+    */
+   public synchronized long pinTimeouts() {
+      return pinTimeouts;
+   }
+
+   /**
+    * Return the total time pins have spent waiting for a buffer.
+    * @return the waiting time in nanoseconds
+    */
+   public synchronized long pinWaitNanos() {
+      return pinWaitNanos;
+   }
+
+   /**
+    * Return a snapshot of the counters of the pool, together with
+    * the number of resident blocks of each file.
+    * The snapshot of a sharded pool sums the counters of its shards.
+    * @return the pool's statistics
+    */
+   public BufferPoolStats stats() {
+      BufferPoolStats stats = new BufferPoolStats();
+      for (BufferMgr pool : pools()) {
+         synchronized (pool) {
+            stats.size += pool.bufferpool.length;
+            stats.available += pool.numAvailable;
+            stats.hits += pool.hits;
+            stats.misses += pool.misses;
+            stats.prefetches += pool.prefetches;
+            stats.cleanEvictions += pool.cleanEvictions;
+            stats.dirtyEvictions += pool.dirtyEvictions;
+            stats.pinWaits += pool.pinWaits;
+            stats.pinTimeouts += pool.pinTimeouts;
+            stats.pinWaitNanos += pool.pinWaitNanos;
+            for (int i = 0; i < pool.waitHistogram.length; i++)
+               stats.waitHistogram[i] += pool.waitHistogram[i];
+            for (BlockId blk : pool.bufferPoolMap.keySet())
+               stats.residency.merge(blk.fileName(), 1, Integer::sum);
+         }
+      }
+      return stats;
    }
 
    // Method to reserve buffers for a transaction
@@ -84,21 +337,167 @@ public class BufferMgr {
    // Modified unpin method
    public synchronized void unpin(Buffer buff) {
       buff.unpin();
-      if (!buff.isPinned())
+      if (!buff.isPinned()) {
          numAvailable++;
+         grantWaiters();
+      }
    }
 
-   private Buffer findExistingBuffer(BlockId blk) {
-      return bufferPoolMap.get(blk);
+   /**
+    * Wake the waiting pins that can now be satisfied.
+    * A pin of a resident block is handed its buffer, which needs
+    * no I/O. The unpinned buffers not yet promised are promised
+    * to the pins that need one, in FIFO order; each such pin
+    * evicts and reads for itself once it wakes.
+    */
+   private void grantWaiters() {
+      Iterator<Waiter> iter = waiters.iterator();
+      while (iter.hasNext()) {
+         Waiter w = iter.next();
+         if (isResident(w.blk))
+            w.granted = tryToPin(w.blk);
+         else if (numAvailable > promised) {
+            promised++;
+            w.promised = true;
+         }
+         else
+            continue;
+         iter.remove();
+         LockSupport.unpark(w.thread);
+      }
+   }
+
+   private boolean isResident(BlockId blk) {
+      Buffer buff = bufferPoolMap.get(blk);
+      return buff != null && !buff.isLoading();
+   }
+
+   /**
+    * Read the specified block into a free buffer without pinning it,
+    * so that a later pin of the block finds it already resident.
+    * @param blk a reference to the disk block
+    * @see #loadRange(String, int, int)
+    */
+   public void prefetch(BlockId blk) {
+      loadRange(blk.fileName(), blk.number(), blk.number());
+   }
+
+   /**
+    * Read the blocks of the file between the two block numbers,
+    * inclusive, into free buffers without pinning them.
+    * Each contiguous run of blocks that are not already resident
+    * is read with a single vectored read.
+    * Only buffers that are unpinned and unmodified are used,
+    * so loading never causes a write; if too few such buffers
+    * are free, only some blocks of the range are loaded.
+    * Blocks beyond the end of the file are ignored.
+    * The disk reads are done outside the buffer manager's lock;
+    * a pin of a block that arrives meanwhile waits for it.
+    * @param filename the name of the file
+    * @param startblk the first block of the range
+    * @param endblk the last block of the range
+    */
+   public void loadRange(String filename, int startblk, int endblk) {
+      endblk = Math.min(endblk, fm.length(filename) - 1);
+      if (endblk < startblk)
+         return;
+      Buffer[] claimed = new Buffer[endblk - startblk + 1];
+      for (int i = 0; i < claimed.length; i++) {
+         BlockId blk = new BlockId(filename, startblk + i);
+         claimed[i] = poolFor(blk).claimForLoading(blk);
+      }
+      int loaded = 0;
+      try {
+         while (loaded < claimed.length) {
+            if (claimed[loaded] == null) {
+               loaded++;
+               continue;
+            }
+            int end = loaded;
+            while (end < claimed.length && claimed[end] != null)
+               end++;
+            Page[] pages = new Page[end - loaded];
+            for (int i = loaded; i < end; i++)
+               pages[i - loaded] = claimed[i].contents();
+            fm.readRange(filename, startblk + loaded, pages);
+            loaded = end;
+         }
+      } finally {
+         for (int i = 0; i < claimed.length; i++) {
+            if (claimed[i] != null) {
+               BlockId blk = new BlockId(filename, startblk + i);
+               poolFor(blk).finishLoading(claimed[i], i < loaded);
+            }
+         }
+      }
+   }
+
+   /**
+    * Return the buffer manager that holds the specified block.
+    * @param blk a reference to a disk block
+    * @return the pool in which the block is cached
+    */
+   BufferMgr poolFor(BlockId blk) {
+      return this;
+   }
+
+   /**
+    * Assign a clean unpinned buffer to the block for loading,
+    * unless the block is already resident.
+    * @param blk a reference to the block to be loaded
+    * @return the claimed buffer, or null if there is none
+    */
+   synchronized Buffer claimForLoading(BlockId blk) {
+      if (bufferPoolMap.containsKey(blk))
+         return null;
+      Buffer buff = chooseBuffer(true);
+      if (buff == null)
+         return null;
+      int frame = frames.get(buff);
+      if (buff.block() != null) {
+         bufferPoolMap.remove(buff.block());
+         policy.evicted(frame, buff.block());
+         cleanEvictions++;
+      }
+      buff.assignForLoading(blk);
+      bufferPoolMap.put(blk, buff);
+      policy.assigned(frame, blk);
+      prefetched[frame] = true;
+      prefetches++;
+      return buff;
+   }
+
+   /**
+    * End the loading of a claimed buffer, and wake any pins
+    * that are waiting for it.
+    * @param buff the claimed buffer
+    * @param ok whether its block was read
+    */
+   synchronized void finishLoading(Buffer buff, boolean ok) {
+      if (!ok) {
+         int frame = frames.get(buff);
+         bufferPoolMap.remove(buff.block());
+         policy.evicted(frame, buff.block());
+         prefetched[frame] = false;
+         buff.clear();
+         unusedFrames.add(frame);
+      }
+      buff.finishLoading();
+      grantWaiters();
+   }
+
+   public Prefetcher prefetcher() {
+      return prefetcher;
+   }
+
+   public void setPrefetcher(Prefetcher prefetcher) {
+      this.prefetcher = prefetcher;
    }
 
    private Buffer chooseUnpinnedBuffer() {
       for (Buffer buff : bufferpool) {
-         if (!buff.isPinned()) {
-            lruQueue.remove(buff); // Remove from LRU queue if it's there
-            lruQueue.addLast(buff); // Add to the end of the LRU queue
+         if (!buff.isPinned())
             return buff;
-         }
       }
       return null; // No unpinned buffers available
    }
@@ -115,7 +514,6 @@ public class BufferMgr {
             }
             // Remove the buffer from the reserved set
             numAvailable++;
-            lruQueue.remove(buff);
          }
          // Remove the transaction's entry from the reservedBuffers map
          reservedBuffers.remove(txId);
@@ -128,9 +526,9 @@ public class BufferMgr {
                buffer.unpin();
             }
             numAvailable++;
-            lruQueue.remove(buffer);
          }
       }
+      grantWaiters();
    }
 
 
@@ -138,34 +536,233 @@ public class BufferMgr {
       return numAvailable;
    }
 
-   public synchronized void flushAll(int txnum) {
-      for (Buffer buff : bufferpool) {
-         if (buff.modifyingTx() == txnum) {
+   /**
+    * Write the buffers modified by the specified transaction.
+    * Only the buffers the transaction is recorded as having
+    * modified are examined, so the cost does not grow with
+    * the size of the pool.
+    * The buffers are pinned while they are written,
+    * and the writes are done outside the buffer manager's lock.
+    * @param txnum the transaction's id number
+    */
+   public void flushAll(int txnum) {
+      Set<Buffer> mine = modifiedBy.remove(txnum);
+      if (mine == null)
+         return;
+      List<Buffer> modified = new ArrayList<>();
+      synchronized (this) {
+         for (Buffer buff : mine) {
+            if (buff.modifyingTx() == txnum && !buff.isLoading()) {
+               pinBuffer(buff);
+               modified.add(buff);
+            }
+         }
+      }
+      try {
+         for (Buffer buff : modified)
             buff.flush();
+      }
+      finally {
+         for (Buffer buff : modified)
+            unpin(buff);
+      }
+   }
+
+   /**
+    * Drop the record of the buffers that the transaction has
+    * modified, without writing them. A transaction whose changes
+    * need not be durable calls this method instead of flushAll
+    * when it finishes; its buffers stay modified until they are
+    * replaced or written by the background writer.
+    * @param txnum the transaction's id number
+    */
+   public void forget(int txnum) {
+      modifiedBy.remove(txnum);
+   }
+
+   /**
+    * Write up to the specified number of modified, unpinned
+    * buffers, lowest LSN first, while transactions continue to run.
+    * Each buffer is written from a copy of its page, which
+    * leaves the buffer modified if a transaction changes it
+    * meanwhile. The buffers are copied in batches, one per copy
+    * page; the log is flushed once per batch, after its pages
+    * have been copied and before any of them is written.
+    * Pass Integer.MAX_VALUE to write every such buffer,
+    * as a checkpoint does.
+    * @param max the maximum number of buffers to write
+    * @param copies the pages to copy a batch into
+    * @return the number of buffers written
+    */
+   int writeDirtyBuffers(int max, Buffer.PageCopy[] copies) {
+      return writeDirtyBuffers(max, Long.MAX_VALUE, copies);
+   }
+
+   /**
+    * Write up to the specified number of modified, unpinned
+    * buffers whose earliest unwritten logged change precedes the
+    * specified LSN, as writeDirtyBuffers(int, Page) does.
+    * A checkpoint uses it to write the pages that hold its
+    * redo point back, without writing the recently modified ones.
+    * @param max the maximum number of buffers to write
+    * @param before the LSN that the recovery LSN of a written buffer precedes
+    * @param copies the pages to copy a batch into
+    * @return the number of buffers written
+    */
+   int writeDirtyBuffers(int max, long before, Buffer.PageCopy[] copies) {
+      List<Buffer> dirty = new ArrayList<>();
+      for (BufferMgr pool : pools())
+         dirty.addAll(pool.pinDirty(max, before));
+      dirty.sort(Comparator.comparingLong(Buffer::getLSN));
+      int n = Math.min(dirty.size(), max);
+      int written = 0;
+      Buffer[] batch = new Buffer[copies.length];
+      try {
+         for (int start = 0; start < n; start += copies.length) {
+            int count = 0;
+            for (int i = start; i < n && i < start + copies.length; i++)
+               if (dirty.get(i).copyForWrite(copies[count]))
+                  batch[count++] = dirty.get(i);
+            if (count == 0)
+               continue;
+            lm.flush(lm.latestLSN());
+            for (int i = 0; i < count; i++)
+               if (batch[i].writeCopy(copies[i]))
+                  written++;
+         }
+      }
+      finally {
+         for (Buffer buff : dirty)
+            poolFor(buff.block()).unpin(buff);
+      }
+      return written;
+   }
+
+   /**
+    * Record that the transaction has modified the buffer.
+    * Called by the buffer when its modifying transaction changes.
+    * A buffer stays recorded after it has been written or replaced;
+    * flushAll skips the buffers that no longer hold the
+    * transaction's changes.
+    * @param txnum the modifying transaction
+    * @param buff the modified buffer
+    */
+   void noteModified(int txnum, Buffer buff) {
+      modifiedBy.computeIfAbsent(txnum, k -> ConcurrentHashMap.newKeySet()).add(buff);
+   }
+
+   /**
+    * Return the blocks currently held in the pool.
+    * @return the resident blocks
+    */
+   public List<BlockId> residentBlocks() {
+      List<BlockId> blocks = new ArrayList<>();
+      for (BufferMgr pool : pools()) {
+         synchronized (pool) {
+            for (Map.Entry<BlockId, Buffer> e : pool.bufferPoolMap.entrySet())
+               if (!e.getValue().isLoading())
+                  blocks.add(e.getKey());
+         }
+      }
+      return blocks;
+   }
+
+   /**
+    * Return the dirty page table: the blocks whose buffers hold
+    * logged changes that have not been written, each with the
+    * LSN of the earliest such change. Recovery from a checkpoint
+    * that records this table redoes no record below that LSN.
+    * @return the recovery LSN of each dirty block
+    */
+   public Map<BlockId, Long> dirtyPages() {
+      Map<BlockId, Long> dirty = new HashMap<>();
+      for (BufferMgr pool : pools()) {
+         synchronized (pool) {
+            for (Buffer buff : pool.bufferpool) {
+               long reclsn = buff.recLSN();
+               if (reclsn >= 0 && buff.block() != null)
+                  dirty.merge(buff.block(), reclsn, Math::min);
+            }
          }
       }
+      return dirty;
    }
 
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+   /**
+    * Return the buffer managers whose buffers make up this pool.
+    * @return the pools of this buffer manager
+    */
+   List<BufferMgr> pools() {
+      return Collections.singletonList(this);
+   }
+
+   /**
+    * Pin up to the specified number of modified, unpinned buffers,
+    * lowest LSN first, so that they can be written without
+    * being replaced.
+    * @param max the maximum number of buffers to pin
+    * @return the pinned buffers
+    */
+   synchronized List<Buffer> pinDirty(int max, long before) {
+      List<Buffer> dirty = new ArrayList<>();
+      for (Buffer buff : bufferpool)
+         if (buff.modifyingTx() >= 0 && !buff.isPinned() && !buff.isLoading()
+               && (before == Long.MAX_VALUE || buff.recLSN() >= 0 && buff.recLSN() < before))
+            dirty.add(buff);
+      dirty.sort(Comparator.comparingLong(Buffer::getLSN));
+      if (dirty.size() > max)
+         dirty = new ArrayList<>(dirty.subList(0, max));
+      for (Buffer buff : dirty)
+         pinBuffer(buff);
+      return dirty;
+   }
+
+   private void pinBuffer(Buffer buff) {
+      if (!buff.isPinned())
+         numAvailable--;
+      buff.pin();
    }
 
    private Buffer tryToPin(BlockId blk) {
       Buffer buff = findExistingBuffer(blk);
+      if (buff != null && buff.isLoading())
+         return null; // wait for the prefetch to finish
       if (buff == null) {
-         buff = chooseBuffer();
+         buff = chooseBuffer(false);
          if (buff == null) {
             return null;
          }
-         buff.assignToBlock(blk);
+         int frame = frames.get(buff);
+         if (buff.block() != null) {
+            bufferPoolMap.remove(buff.block());
+            policy.evicted(frame, buff.block());
+            if (buff.modifyingTx() >= 0)
+               dirtyEvictions++;
+            else
+               cleanEvictions++;
+         }
+         try {
+            buff.assignToBlock(blk);
+         }
+         catch(RuntimeException e) {
+            buff.clear();
+            unusedFrames.add(frame);
+            throw e;
+         }
          bufferPoolMap.put(blk, buff);
+         policy.assigned(frame, blk);
+         prefetched[frame] = false;
+         misses++;
       }
-      if (!buff.isPinned()) {
-         numAvailable--;
-         lruQueue.remove(buff);
+      else {
+         hits++;
+         int frame = frames.get(buff);
+         if (prefetched[frame])
+            prefetched[frame] = false; // loading was the first reference
+         else
+            policy.accessed(frame);
       }
-      buff.pin();
-      lruQueue.addLast(buff);
+      pinBuffer(buff);
       return buff;
    }
 
@@ -173,24 +770,27 @@ public class BufferMgr {
       return bufferPoolMap.getOrDefault(blk, null);
    }
 
-   private Buffer chooseBuffer() {
-      Buffer bestBuffer = null;
-      long lowestLSN = Long.MAX_VALUE;
-
-      for (Buffer buff : lruQueue) {
-         if (!buff.isPinned() && buff.modifyingTx() == -1) {
-            return buff; // Return first found unmodified buffer
-         }
-         if (!buff.isPinned() && buff.modifyingTx() != -1 && buff.getLSN() < lowestLSN) {
-            bestBuffer = buff;
-            lowestLSN = buff.getLSN();
-         }
-      }
-      return bestBuffer != null ? bestBuffer : lruQueue.peekFirst(); // Fallback to LRU
+   /**
+    * Choose a buffer to hold a new block: a buffer that has
+    * never been used if there is one, and otherwise the
+    * replacement policy's choice among the unpinned buffers.
+    * @param cleanOnly whether modified buffers must be skipped
+    * @return the chosen buffer, or null if there is none
+    */
+   private Buffer chooseBuffer(boolean cleanOnly) {
+      if (!unusedFrames.isEmpty())
+         return bufferpool[unusedFrames.poll()];
+      if (numAvailable == 0)
+         return null;
+      int frame = policy.victim(f -> {
+         Buffer buff = bufferpool[f];
+         return !buff.isPinned() && !buff.isLoading() && (!cleanOnly || buff.modifyingTx() < 0);
+      });
+      return (frame < 0) ? null : bufferpool[frame];
    }
 
    // Method to retrieve the LSN from Buffer
-   private int getLSN(Buffer buff) {
+   private long getLSN(Buffer buff) {
       return buff.getLSN();
    }
 
@@ -198,7 +798,7 @@ public class BufferMgr {
       return fm.length(filename);
    }
 
-   public synchronized Buffer append(String filename) {
+   public Buffer append(String filename) {
       BlockId blk = fm.append(filename); // Append a new block
       Buffer buff = pin(blk); // Pin the new block in the buffer pool
       if (buff == null) {
@@ -217,4 +817,19 @@ public class BufferMgr {
    public FileMgr getFileMgr() {
       return fm;
    }
+
+   /**
+    * A pin waiting for a buffer.
+    * The fields are set by the thread that grants the pin.
+    */
+   private static class Waiter {
+      final Thread thread = Thread.currentThread();
+      final BlockId blk;
+      volatile Buffer granted;
+      volatile boolean promised; // an unpinned buffer is set aside for the waiter
+
+      Waiter(BlockId blk) {
+         this.blk = blk;
+      }
+   }
 }
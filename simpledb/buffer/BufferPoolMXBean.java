@@ -0,0 +1,27 @@
+package simpledb.buffer;
+
+import java.util.Map;
+
+/**
+ * The management interface of a buffer pool,
+ * as published through JMX.
+ * @see BufferPoolStats
+ */
+public interface BufferPoolMXBean {
+   long getSize();
+   long getAvailable();
+   long getHits();
+   long getMisses();
+   double getHitRatio();
+   long getPrefetches();
+   long getCleanEvictions();
+   long getDirtyEvictions();
+   long getPinWaits();
+   long getPinTimeouts();
+   long getPinWaitNanos();
+   long[] getWaitHistogramBucketMillis();
+   long[] getWaitHistogram();
+   Map<String, Integer> getResidency();
+   long getBlocksRead();
+   long getBlocksWritten();
+}
@@ -0,0 +1,124 @@
+package simpledb.buffer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.*;
+
+/**
+ * Publishes the statistics of a buffer pool through JMX.
+ * Each attribute is read from a fresh snapshot of the pool.
+ */
+public class BufferPoolMonitor implements BufferPoolMXBean {
+   private BufferMgr bm;
+   private ObjectName oname;
+
+   /**
+    * Create a monitor for the specified buffer manager.
+    * @param bm the buffer manager
+    */
+   public BufferPoolMonitor(BufferMgr bm) {
+      this.bm = bm;
+   }
+
+   /**
+    * Register the monitor with the platform MBean server under
+    * the specified name. A monitor already registered under the
+    * name is not replaced: the registration fails instead, since
+    * the name belongs to another database open in the process.
+    * @param name the name of the monitored database
+    * @return the object name of the monitor
+    */
+   public ObjectName register(String name) {
+      try {
+         ObjectName on = new ObjectName("simpledb:type=BufferPool,name=" + ObjectName.quote(name));
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+         oname = on;
+         return on;
+      } catch (InstanceAlreadyExistsException e) {
+         throw new RuntimeException("a buffer pool monitor is already registered for " + name, e);
+      } catch (JMException e) {
+         throw new RuntimeException("Unable to register buffer pool monitor: " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Remove the monitor from the platform MBean server,
+    * if it is registered.
+    */
+   public void unregister() {
+      if (oname == null)
+         return;
+      try {
+         ManagementFactory.getPlatformMBeanServer().unregisterMBean(oname);
+      } catch (InstanceNotFoundException e) {
+         // already gone
+      } catch (JMException e) {
+         throw new RuntimeException("Unable to unregister buffer pool monitor: " + e.getMessage(), e);
+      }
+      oname = null;
+   }
+
+   public long getSize() {
+      return bm.stats().size();
+   }
+
+   public long getAvailable() {
+      return bm.stats().available();
+   }
+
+   public long getHits() {
+      return bm.stats().hits();
+   }
+
+   public long getMisses() {
+      return bm.stats().misses();
+   }
+
+   public double getHitRatio() {
+      return bm.stats().hitRatio();
+   }
+
+   public long getPrefetches() {
+      return bm.stats().prefetches();
+   }
+
+   public long getCleanEvictions() {
+      return bm.stats().cleanEvictions();
+   }
+
+   public long getDirtyEvictions() {
+      return bm.stats().dirtyEvictions();
+   }
+
+   public long getPinWaits() {
+      return bm.stats().pinWaits();
+   }
+
+   public long getPinTimeouts() {
+      return bm.stats().pinTimeouts();
+   }
+
+   public long getPinWaitNanos() {
+      return bm.stats().pinWaitNanos();
+   }
+
+   public long[] getWaitHistogramBucketMillis() {
+      return BufferPoolStats.WAIT_BUCKET_MILLIS.clone();
+   }
+
+   public long[] getWaitHistogram() {
+      return bm.stats().waitHistogram();
+   }
+
+   public Map<String, Integer> getResidency() {
+      return bm.stats().residency();
+   }
+
+   public long getBlocksRead() {
+      return bm.getFileMgr().getBlocksRead();
+   }
+
+   public long getBlocksWritten() {
+      return bm.getFileMgr().getBlocksWritten();
+   }
+}
@@ -0,0 +1,119 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * A snapshot of the counters of a buffer pool, taken by
+ * {@link BufferMgr#stats()}.
+ * The counters cover the life of the pool; for a sharded pool
+ * they are the sums over its shards.
+ */
+public class BufferPoolStats {
+   /**
+    * The upper bounds, in milliseconds, of the buckets of the
+    * pin-wait histogram; the histogram has one more bucket,
+    * for the waits longer than the last bound.
+    */
+   public static final long[] WAIT_BUCKET_MILLIS = {1, 10, 100, 1000, 10000};
+
+   long size, available;
+   long hits, misses, prefetches;
+   long cleanEvictions, dirtyEvictions;
+   long pinWaits, pinTimeouts, pinWaitNanos;
+   long[] waitHistogram = new long[WAIT_BUCKET_MILLIS.length + 1];
+   Map<String, Integer> residency = new TreeMap<>();
+
+   BufferPoolStats() {}
+
+   /**
+    * Return the index of the histogram bucket for a wait.
+    * @param nanos the length of the wait in nanoseconds
+    * @return the bucket index
+    */
+   static int bucket(long nanos) {
+      long millis = nanos / 1_000_000;
+      int i = 0;
+      while (i < WAIT_BUCKET_MILLIS.length && millis >= WAIT_BUCKET_MILLIS[i])
+         i++;
+      return i;
+   }
+
+   /** The number of buffers in the pool. */
+   public long size() {
+      return size;
+   }
+
+   /** The number of unpinned buffers. */
+   public long available() {
+      return available;
+   }
+
+   /** The number of pins that found their block resident. */
+   public long hits() {
+      return hits;
+   }
+
+   /** The number of pins that had to read their block. */
+   public long misses() {
+      return misses;
+   }
+
+   /**
+    * The fraction of pins that found their block resident,
+    * or 0 if there have been no pins.
+    */
+   public double hitRatio() {
+      long pins = hits + misses;
+      return (pins == 0) ? 0 : (double) hits / pins;
+   }
+
+   /** The number of blocks read ahead of being pinned. */
+   public long prefetches() {
+      return prefetches;
+   }
+
+   /** The number of replaced buffers that were unmodified. */
+   public long cleanEvictions() {
+      return cleanEvictions;
+   }
+
+   /** The number of replaced buffers that had to be written first. */
+   public long dirtyEvictions() {
+      return dirtyEvictions;
+   }
+
+   /** The number of pins that waited for a buffer. */
+   public long pinWaits() {
+      return pinWaits;
+   }
+
+   /** The number of pins that gave up waiting. */
+   public long pinTimeouts() {
+      return pinTimeouts;
+   }
+
+   /** The total time pins have waited, in nanoseconds. */
+   public long pinWaitNanos() {
+      return pinWaitNanos;
+   }
+
+   /**
+    * The number of waits in each bucket of the histogram.
+    * @see #WAIT_BUCKET_MILLIS
+    */
+   public long[] waitHistogram() {
+      return waitHistogram.clone();
+   }
+
+   /** The number of resident blocks of each file. */
+   public Map<String, Integer> residency() {
+      return Collections.unmodifiableMap(residency);
+   }
+
+   public String toString() {
+      return String.format("buffers %d (%d available), hits %d, misses %d, hit ratio %.3f, "
+            + "prefetched %d, evictions %d clean / %d dirty, waits %d (%d timed out), wait histogram %s",
+            size, available, hits, misses, hitRatio(), prefetches, cleanEvictions, dirtyEvictions,
+            pinWaits, pinTimeouts, Arrays.toString(waitHistogram));
+   }
+}
@@ -0,0 +1,76 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Checks that pins waiting for a buffer are served in the order
+ * they arrived, that a waiter for a resident block does not
+ * queue behind them, and that an interrupted waiter is cancelled
+ * with its interrupt status cleared.
+ */
+public class BufferWaitTest {
+   private static BufferMgr bm;
+   private static List<Integer> served = Collections.synchronizedList(new ArrayList<>());
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("bufferwaittest", 400, 3); // only 3 buffers
+      bm = db.bufferMgr();
+      bm.setMaxWait(10000);
+
+      Buffer[] buff = new Buffer[3];
+      for (int i = 0; i < 3; i++)
+         buff[i] = bm.pin(new BlockId("testfile", i));
+
+      // five pins of new blocks queue up, in order
+      Thread[] threads = new Thread[5];
+      for (int i = 0; i < 5; i++) {
+         int id = i;
+         threads[i] = new Thread(() -> {
+            Buffer b = bm.pin(new BlockId("testfile", 10 + id));
+            served.add(id);
+            bm.unpin(b);
+         });
+         threads[i].start();
+         awaitQueueLength(i + 1);
+      }
+
+      // a pin of a resident block is served at once
+      Buffer again = bm.pin(new BlockId("testfile", 0));
+      System.out.println("resident block pinned while others wait: " + again.block());
+      bm.unpin(again);
+
+      // freeing one buffer lets the waiters through one after another
+      bm.unpin(buff[0]);
+      for (Thread t : threads)
+         t.join();
+      System.out.println("waiters served in order " + served + " (should be [0, 1, 2, 3, 4])");
+
+      // an interrupted waiter is cancelled, and can still do I/O
+      Buffer spare = bm.pin(new BlockId("testfile", 20));
+      Thread waiter = new Thread(() -> {
+         try {
+            bm.pin(new BlockId("testfile", 21));
+            System.out.println("the interrupted pin succeeded");
+         }
+         catch(BufferInterruptedException e) {
+            System.out.println("the interrupted pin was cancelled; interrupt status "
+                  + Thread.currentThread().isInterrupted() + " (should be false)");
+         }
+      });
+      waiter.start();
+      awaitQueueLength(1);
+      waiter.interrupt();
+      waiter.join();
+      System.out.println("timeouts: " + bm.pinTimeouts() + " (should be 0)");
+      bm.unpin(spare);
+      bm.unpin(buff[1]);
+      bm.unpin(buff[2]);
+   }
+
+   private static void awaitQueueLength(int n) throws InterruptedException {
+      while (bm.waitQueueLength() < n)
+         Thread.sleep(1);
+   }
+}
@@ -0,0 +1,56 @@
+package simpledb.buffer;
+
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * The CLOCK replacement policy.
+ * Each frame has a reference bit, which is set when its block
+ * is referenced and cleared as the clock hand passes it;
+ * the hand chooses the first replaceable frame whose bit is clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+   private boolean[] present;
+   private boolean[] referenced;
+   private int hand = 0;
+
+   public ClockPolicy(int nframes) {
+      present = new boolean[nframes];
+      referenced = new boolean[nframes];
+   }
+
+   public void assigned(int frame, BlockId blk) {
+      present[frame] = true;
+      referenced[frame] = true;
+   }
+
+   public void accessed(int frame) {
+      referenced[frame] = true;
+   }
+
+   public void evicted(int frame, BlockId blk) {
+      present[frame] = false;
+      referenced[frame] = false;
+   }
+
+   /**
+    * Advance the clock hand to a replaceable frame.
+    * Two sweeps suffice: the first clears reference bits,
+    * and the second finds any frame that was skipped only
+    * because its bit was set.
+    */
+   public int victim(IntPredicate replaceable) {
+      for (int i = 0; i < 2 * present.length; i++) {
+         int frame = hand;
+         hand = (hand + 1) % present.length;
+         if (!present[frame] || !replaceable.test(frame))
+            continue;
+         if (referenced[frame]) {
+            referenced[frame] = false;
+            continue;
+         }
+         return frame;
+      }
+      return -1;
+   }
+}
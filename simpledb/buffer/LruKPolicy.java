@@ -0,0 +1,77 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * The LRU-K replacement policy of O'Neil, O'Neil and Weikum.
+ * The policy remembers the times of the last K references
+ * to each block, and chooses the frame whose Kth most recent
+ * reference is oldest. Blocks referenced fewer than K times
+ * are chosen first, least recently used first, which keeps
+ * a block that is read once by a large scan from displacing
+ * blocks that are referenced repeatedly.
+ * The reference history of evicted blocks is retained for
+ * as many blocks as there are frames, so that a block that
+ * is soon read again does not start over.
+ * With K = 1 the policy is plain LRU.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+   private int k;
+   private long clock = 0;
+   private long[][] history; // the last k reference times of each frame, most recent first
+   private TreeSet<Integer> order;
+   private Map<BlockId, long[]> retained;
+
+   public LruKPolicy(int nframes, int k) {
+      if (k < 1)
+         throw new IllegalArgumentException("K must be at least 1");
+      this.k = k;
+      history = new long[nframes][];
+      order = new TreeSet<>((f1, f2) -> {
+         int cmp = Long.compare(history[f1][k-1], history[f2][k-1]);
+         if (cmp == 0)
+            cmp = Long.compare(history[f1][0], history[f2][0]);
+         return (cmp != 0) ? cmp : Integer.compare(f1, f2);
+      });
+      retained = new LinkedHashMap<BlockId, long[]>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<BlockId, long[]> eldest) {
+            return size() > nframes;
+         }
+      };
+   }
+
+   public void assigned(int frame, BlockId blk) {
+      long[] hist = retained.remove(blk);
+      history[frame] = (hist != null) ? hist : new long[k];
+      reference(frame);
+      order.add(frame);
+   }
+
+   public void accessed(int frame) {
+      order.remove(frame);
+      reference(frame);
+      order.add(frame);
+   }
+
+   public void evicted(int frame, BlockId blk) {
+      order.remove(frame);
+      if (k > 1)
+         retained.put(blk, history[frame]);
+      history[frame] = null;
+   }
+
+   public int victim(IntPredicate replaceable) {
+      for (int frame : order)
+         if (replaceable.test(frame))
+            return frame;
+      return -1;
+   }
+
+   private void reference(int frame) {
+      long[] hist = history[frame];
+      System.arraycopy(hist, 0, hist, 1, k-1);
+      hist[0] = ++clock;
+   }
+}
@@ -0,0 +1,107 @@
+package simpledb.buffer;
+
+/**
+ * A daemon thread that performs a task at a fixed period,
+ * until it is shut down. A task that fails is counted and
+ * skipped, and the thread carries on with the next period;
+ * the first failure is reported on standard error.
+ * The background writer and the checkpoint scheduler are
+ * such threads.
+ */
+public abstract class PeriodicDaemon {
+   private String name;
+   private long period;
+   private Thread thread;
+   private volatile boolean running = false;
+   private final Object wakeup = new Object();
+   private volatile long failures = 0;
+   private volatile RuntimeException lastFailure;
+
+   /**
+    * Create a daemon that has the specified thread name and period.
+    * @param name the name of the thread
+    * @param period the number of milliseconds between tasks
+    */
+   protected PeriodicDaemon(String name, long period) {
+      this.name = name;
+      this.period = period;
+   }
+
+   /**
+    * Perform the task once. Called by the thread every period.
+    */
+   protected abstract void runTask();
+
+   /**
+    * Start the thread, unless it is running.
+    */
+   public synchronized void start() {
+      if (running)
+         return;
+      running = true;
+      thread = new Thread(this::run, name);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Stop the thread, waiting for its current task to finish.
+    * The thread is signalled rather than interrupted, since an
+    * interrupt during a write would close the file's channel.
+    */
+   public void shutdown() {
+      running = false;
+      synchronized (wakeup) {
+         wakeup.notifyAll();
+      }
+      Thread t = thread;
+      if (t == null)
+         return;
+      try {
+         t.join();
+      }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Return the number of tasks that failed.
+    * @return the number of failed tasks
+    */
+   public long failures() {
+      return failures;
+   }
+
+   /**
+    * Return the failure of the latest failed task.
+    * @return the latest failure, or null if no task has failed
+    */
+   public RuntimeException lastFailure() {
+      return lastFailure;
+   }
+
+   private void run() {
+      while (running) {
+         synchronized (wakeup) {
+            try {
+               if (running)
+                  wakeup.wait(period);
+            }
+            catch(InterruptedException e) {
+               return;
+            }
+         }
+         if (!running)
+            return;
+         try {
+            runTask();
+         }
+         catch(RuntimeException e) {
+            lastFailure = e;
+            if (failures++ == 0)
+               System.err.println(name + ": " + e);
+         }
+      }
+   }
+}
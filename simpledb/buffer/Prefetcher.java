@@ -0,0 +1,98 @@
+package simpledb.buffer;
+
+import java.util.concurrent.*;
+
+/**
+ * Issues asynchronous reads of blocks into free buffers
+ * of the buffer manager, so that a scan which is about to
+ * pin those blocks finds them already resident.
+ * The reads are done by a small pool of daemon threads.
+ * A prefetcher having a depth of 0 is disabled, and
+ * all of its methods do nothing.
+ */
+public class Prefetcher {
+   public static int READER_THREADS = 2;
+
+   private BufferMgr bm;
+   private int depth;
+   private ThreadPoolExecutor readers;
+
+   /**
+    * Create a prefetcher for the buffer manager.
+    * @param bm the buffer manager whose buffers receive the blocks
+    * @param depth the number of blocks to read ahead of a sequential scan
+    */
+   public Prefetcher(BufferMgr bm, int depth) {
+      this.bm = bm;
+      this.depth = depth;
+      if (depth > 0)
+         readers = new ThreadPoolExecutor(READER_THREADS, READER_THREADS,
+                                          0L, TimeUnit.MILLISECONDS,
+                                          new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "simpledb-prefetch");
+            t.setDaemon(true);
+            return t;
+         });
+   }
+
+   /**
+    * Return the number of blocks to read ahead of a sequential scan.
+    * @return the read-ahead depth
+    */
+   public int depth() {
+      return depth;
+   }
+
+   /**
+    * Asynchronously read the blocks of the file between
+    * the two block numbers, inclusive, using one vectored read.
+    * The end block may be less than the start block,
+    * for scans that move backwards through a file.
+    * @param filename the name of the file
+    * @param startblk the first block to read
+    * @param endblk the last block to read
+    */
+   public void prefetch(String filename, int startblk, int endblk) {
+      if (readers == null)
+         return;
+      int lo = Math.max(0, Math.min(startblk, endblk));
+      int hi = Math.max(startblk, endblk);
+      if (hi < lo)
+         return;
+      try {
+         readers.execute(() -> bm.loadRange(filename, lo, hi));
+      } catch (RejectedExecutionException e) {
+         // shutting down
+      }
+   }
+
+   /**
+    * Return an object that watches the blocks a scan
+    * moves to, and reads ahead once the moves are sequential.
+    * @param filename the name of the scanned file
+    * @return a read-ahead tracker for that file
+    */
+   public ReadAhead readAhead(String filename) {
+      return new ReadAhead(this, filename);
+   }
+
+   /**
+    * Stop the reader threads.
+    * Reads that have not started are abandoned, and the method
+    * waits for the reads in progress to finish; the threads are
+    * not interrupted, since an interrupt during a read would
+    * close the file's channel.
+    */
+   public void shutdown() {
+      if (readers == null)
+         return;
+      readers.getQueue().clear();
+      readers.shutdown();
+      try {
+         readers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
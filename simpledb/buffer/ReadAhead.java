@@ -0,0 +1,52 @@
+package simpledb.buffer;
+
+/**
+ * Detects sequential access by a single scan over a file.
+ * The scan reports each block it moves to.
+ * Once two consecutive moves go to adjacent blocks,
+ * in either direction, the tracker keeps the prefetcher's
+ * depth worth of blocks requested ahead of the scan.
+ * A move to a non-adjacent block resets the detection.
+ */
+public class ReadAhead {
+   private Prefetcher prefetcher;
+   private String filename;
+   private int lastblk = -2;
+   private int direction = 0;
+   private int frontier = -1; // the furthest block already requested
+
+   ReadAhead(Prefetcher prefetcher, String filename) {
+      this.prefetcher = prefetcher;
+      this.filename = filename;
+   }
+
+   /**
+    * Note that the scan has moved to the specified block,
+    * and read ahead if the scan is sequential.
+    * @param blknum the block number the scan moved to
+    */
+   public void access(int blknum) {
+      int depth = prefetcher.depth();
+      int step = blknum - lastblk;
+      lastblk = blknum;
+      if (depth == 0)
+         return;
+      if (step != 1 && step != -1) {
+         direction = 0;
+         return;
+      }
+      if (step != direction) {
+         direction = step;
+         frontier = blknum;
+      }
+      // Top up the window once half of it has been consumed.
+      int ahead = (frontier - blknum) * direction;
+      if (ahead < 0)
+         frontier = blknum;
+      else if (ahead > depth / 2)
+         return;
+      int target = blknum + direction * depth;
+      prefetcher.prefetch(filename, frontier + direction, target);
+      frontier = target;
+   }
+}
@@ -0,0 +1,69 @@
+package simpledb.buffer;
+
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * The strategy a buffer manager uses to choose which
+ * of its buffers to replace.
+ * The buffers of a pool are identified by their frame number,
+ * from 0 up to the size of the pool.
+ * The buffer manager reports each event that the policy needs;
+ * all calls are made while holding the buffer manager's lock.
+ * A frame that has never held a block, or whose block was
+ * evicted, is not known to the policy until it is assigned again.
+ */
+public interface ReplacementPolicy {
+   /**
+    * Note that the frame has been assigned to the block.
+    * This counts as the block's first reference.
+    * @param frame the frame number
+    * @param blk the block the frame now holds
+    */
+   void assigned(int frame, BlockId blk);
+
+   /**
+    * Note that the block held by the frame has been pinned again.
+    * @param frame the frame number
+    */
+   void accessed(int frame);
+
+   /**
+    * Note that the frame no longer holds the block.
+    * @param frame the frame number
+    * @param blk the block that was evicted
+    */
+   void evicted(int frame, BlockId blk);
+
+   /**
+    * Choose a frame to replace from among the frames
+    * known to the policy that satisfy the predicate.
+    * @param replaceable tells which frames may be chosen
+    * @return the chosen frame, or -1 if there is none
+    */
+   int victim(IntPredicate replaceable);
+
+   /**
+    * Create the named policy for a pool of the specified size.
+    * The names are "clock", "lru", "lru-k" for a value of k
+    * such as "lru-2", "2q" and "arc".
+    * @param name the name of the policy
+    * @param nframes the number of frames in the pool
+    * @return a new policy
+    */
+   static ReplacementPolicy create(String name, int nframes) {
+      String lcname = name.toLowerCase();
+      if (lcname.equals("clock"))
+         return new ClockPolicy(nframes);
+      else if (lcname.equals("lru"))
+         return new LruKPolicy(nframes, 1);
+      else if (lcname.startsWith("lru-"))
+         return new LruKPolicy(nframes, Integer.parseInt(lcname.substring(4)));
+      else if (lcname.equals("2q"))
+         return new TwoQueuePolicy(nframes);
+      else if (lcname.equals("arc"))
+         return new ArcPolicy(nframes);
+      else
+         throw new IllegalArgumentException("unknown replacement policy " + name);
+   }
+}
@@ -0,0 +1,173 @@
+package simpledb.buffer;
+
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+import java.util.*;
+
+/**
+ * A buffer manager whose pool is partitioned into shards.
+ * Each block belongs to the shard selected by its hash code,
+ * and each shard is an ordinary buffer manager, with its own
+ * lock, its own page table and its own replacement policy.
+ * Pins and unpins of blocks in different shards therefore
+ * proceed in parallel.
+ * The price of partitioning is that a pin waits for a buffer
+ * of its own shard, even if another shard has one free;
+ * for that reason each shard has at least MIN_SHARD_BUFFERS buffers.
+ */
+public class ShardedBufferMgr extends BufferMgr {
+   public static int MIN_SHARD_BUFFERS = 8;
+
+   private FileMgr fm;
+   private BufferMgr[] shards;
+
+   /**
+    * Create a sharded buffer manager whose shards
+    * use the CLOCK replacement policy.
+    * @see #ShardedBufferMgr(FileMgr, LogMgr, int, int, String)
+    */
+   public ShardedBufferMgr(FileMgr fm, LogMgr lm, int numbuffs, int numshards) {
+      this(fm, lm, numbuffs, numshards, "clock");
+   }
+
+   /**
+    * Create a buffer manager having the specified number
+    * of buffer slots, divided as evenly as possible among
+    * the specified number of shards.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param numbuffs the number of buffers in the pool
+    * @param numshards the desired number of shards
+    * @param policyname the replacement policy of each shard
+    */
+   public ShardedBufferMgr(FileMgr fm, LogMgr lm, int numbuffs, int numshards, String policyname) {
+      this(fm, lm, numbuffs, numshards, policyname, false);
+   }
+
+   /**
+    * Create a sharded buffer manager whose pages may all be
+    * slices of a single off-heap arena, shared by the shards.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param numbuffs the number of buffers in the pool
+    * @param numshards the desired number of shards
+    * @param policyname the replacement policy of each shard
+    * @param useArena whether to allocate the pages from one arena
+    */
+   public ShardedBufferMgr(FileMgr fm, LogMgr lm, int numbuffs, int numshards, String policyname,
+                           boolean useArena) {
+      super(fm, lm, 0, policyname);
+      this.fm = fm;
+      numshards = Math.max(1, Math.min(numshards, numbuffs / MIN_SHARD_BUFFERS));
+      Page[] pages = allocatePages(fm.blockSize(), numbuffs, useArena);
+      shards = new BufferMgr[numshards];
+      int from = 0;
+      for (int i = 0; i < numshards; i++) {
+         int size = numbuffs / numshards + (i < numbuffs % numshards ? 1 : 0);
+         shards[i] = new BufferMgr(fm, lm, Arrays.copyOfRange(pages, from, from + size), policyname);
+         from += size;
+      }
+   }
+
+   /**
+    * Return the number of shards in the pool.
+    * @return the number of shards
+    */
+   public int shards() {
+      return shards.length;
+   }
+
+   /**
+    * Pin a buffer to the specified block, waiting until a buffer
+    * of the block's shard becomes available if necessary.
+    * @see BufferMgr#pin(BlockId)
+    */
+   public Buffer pin(BlockId blk) {
+      return poolFor(blk).pin(blk);
+   }
+
+   public void unpin(Buffer buff) {
+      poolFor(buff.block()).unpin(buff);
+   }
+
+   public int available() {
+      int n = 0;
+      for (BufferMgr shard : shards)
+         n += shard.available();
+      return n;
+   }
+
+   public void flushAll(int txnum) {
+      for (BufferMgr shard : shards)
+         shard.flushAll(txnum);
+   }
+
+   public void forget(int txnum) {
+      for (BufferMgr shard : shards)
+         shard.forget(txnum);
+   }
+
+   public void flush(BlockId blk) {
+      poolFor(blk).flush(blk);
+   }
+
+   public void setMaxWait(long millis) {
+      for (BufferMgr shard : shards)
+         shard.setMaxWait(millis);
+   }
+
+   public int waitQueueLength() {
+      int n = 0;
+      for (BufferMgr shard : shards)
+         n += shard.waitQueueLength();
+      return n;
+   }
+
+   /**
+    * Return the longest that any shard's wait queue has been.
+    */
+   public int maxWaitQueueLength() {
+      int n = 0;
+      for (BufferMgr shard : shards)
+         n = Math.max(n, shard.maxWaitQueueLength());
+      return n;
+   }
+
+   public long pinWaits() {
+      long n = 0;
+      for (BufferMgr shard : shards)
+         n += shard.pinWaits();
+      return n;
+   }
+
+   public long pinTimeouts() {
+      long n = 0;
+      for (BufferMgr shard : shards)
+         n += shard.pinTimeouts();
+      return n;
+   }
+
+   public long pinWaitNanos() {
+      long n = 0;
+      for (BufferMgr shard : shards)
+         n += shard.pinWaitNanos();
+      return n;
+   }
+
+   public int length(String filename) {
+      return fm.length(filename);
+   }
+
+   public Buffer append(String filename) {
+      return pin(fm.append(filename));
+   }
+
+   List<BufferMgr> pools() {
+      return Arrays.asList(shards);
+   }
+
+   BufferMgr poolFor(BlockId blk) {
+      return shards[Math.floorMod(blk.hashCode(), shards.length)];
+   }
+}
@@ -0,0 +1,63 @@
+package simpledb.buffer;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import simpledb.file.BlockId;
+
+/**
+ * The full 2Q replacement policy of Johnson and Shasha.
+ * A newly read block enters the FIFO queue A1in, and a
+ * second reference while it is there does not promote it.
+ * When a block leaves A1in, its id is remembered in the ghost
+ * queue A1out; if the block is read again while remembered,
+ * it enters the LRU queue Am of frequently used blocks.
+ * Blocks of a large scan therefore pass through A1in
+ * without disturbing Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+   private int kin, kout;
+   private LinkedHashSet<Integer> a1in = new LinkedHashSet<>();
+   private LinkedHashSet<Integer> am = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> a1out = new LinkedHashSet<>();
+
+   public TwoQueuePolicy(int nframes) {
+      kin = Math.max(1, nframes / 4);
+      kout = Math.max(1, nframes / 2);
+   }
+
+   public void assigned(int frame, BlockId blk) {
+      if (a1out.remove(blk))
+         am.add(frame);
+      else
+         a1in.add(frame);
+   }
+
+   public void accessed(int frame) {
+      if (am.remove(frame))
+         am.add(frame);
+   }
+
+   public void evicted(int frame, BlockId blk) {
+      if (a1in.remove(frame)) {
+         a1out.add(blk);
+         if (a1out.size() > kout)
+            a1out.remove(a1out.iterator().next());
+      }
+      else
+         am.remove(frame);
+   }
+
+   public int victim(IntPredicate replaceable) {
+      LinkedHashSet<Integer> first = (a1in.size() > kin || am.isEmpty()) ? a1in : am;
+      LinkedHashSet<Integer> second = (first == a1in) ? am : a1in;
+      int frame = oldest(first, replaceable);
+      return (frame >= 0) ? frame : oldest(second, replaceable);
+   }
+
+   private int oldest(LinkedHashSet<Integer> queue, IntPredicate replaceable) {
+      for (int frame : queue)
+         if (replaceable.test(frame))
+            return frame;
+      return -1;
+   }
+}
@@ -0,0 +1,107 @@
+package simpledb.buffer;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * Saves the identity of the blocks resident in a buffer pool,
+ * and reads them back into the pool after a restart,
+ * so that the restarted server does not have to fault in its
+ * working set one random read at a time.
+ * The blocks are reloaded in file and block order, and each
+ * run of consecutive blocks is read with a single vectored read.
+ * Temporary tables are not saved.
+ */
+public class WarmCache {
+   public static final String WARM_FILE = "warmcache.dat";
+
+   private BufferMgr bm;
+   private File dbDirectory;
+
+   /**
+    * Create a warm cache for the pool of a database.
+    * @param bm the buffer manager
+    * @param dbDirectory the database directory, which holds the saved list
+    */
+   public WarmCache(BufferMgr bm, File dbDirectory) {
+      this.bm = bm;
+      this.dbDirectory = dbDirectory;
+   }
+
+   /**
+    * Save the list of resident blocks, replacing any previous list.
+    * The new list is written completely before it replaces the old one.
+    */
+   public void save() {
+      List<BlockId> blocks = new ArrayList<>();
+      for (BlockId blk : bm.residentBlocks())
+         if (!blk.fileName().startsWith("temp"))
+            blocks.add(blk);
+      sort(blocks);
+      File file = new File(dbDirectory, WARM_FILE);
+      File newfile = new File(dbDirectory, WARM_FILE + ".new");
+      try {
+         try (DataOutputStream dos = new DataOutputStream(
+               new BufferedOutputStream(new FileOutputStream(newfile)))) {
+            dos.writeInt(blocks.size());
+            for (BlockId blk : blocks) {
+               dos.writeUTF(blk.fileName());
+               dos.writeInt(blk.number());
+            }
+         }
+         Files.move(newfile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to save warm cache: " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Read the saved blocks into the pool, without pinning them.
+    * Blocks of files that no longer exist, and runs that cannot
+    * be read, are skipped; loading stops quietly when the pool
+    * has no clean buffers left.
+    * @return the number of blocks requested
+    */
+   public int load() {
+      File file = new File(dbDirectory, WARM_FILE);
+      if (!file.exists())
+         return 0;
+      List<BlockId> blocks = new ArrayList<>();
+      try (DataInputStream dis = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(file)))) {
+         int count = dis.readInt();
+         for (int i = 0; i < count; i++)
+            blocks.add(new BlockId(dis.readUTF(), dis.readInt()));
+      } catch (IOException e) {
+         return 0; // an unreadable list only costs the warm-up
+      }
+      sort(blocks);
+      int requested = 0;
+      int i = 0;
+      while (i < blocks.size()) {
+         BlockId first = blocks.get(i);
+         int end = i + 1;
+         while (end < blocks.size()
+               && blocks.get(end).fileName().equals(first.fileName())
+               && blocks.get(end).number() == blocks.get(end-1).number() + 1)
+            end++;
+         if (new File(dbDirectory, first.fileName()).exists()) {
+            try {
+               bm.loadRange(first.fileName(), first.number(), blocks.get(end-1).number());
+               requested += end - i;
+            } catch (RuntimeException e) {
+               // leave the run to be read on demand, which reports any error
+            }
+         }
+         i = end;
+      }
+      return requested;
+   }
+
+   private static void sort(List<BlockId> blocks) {
+      blocks.sort(Comparator.comparing(BlockId::fileName).thenComparingInt(BlockId::number));
+   }
+}
@@ -1,6 +1,6 @@
 package simpledb.client;
 
-import simpledb.remote.RemoteDriver;
+import simpledb.jdbc.network.RemoteDriver;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
@@ -0,0 +1,34 @@
+package simpledb.file;
+
+import java.io.*;
+
+public class ChecksumTest {
+   public static void main(String[] args) throws IOException {
+      File dbDirectory = new File("checksumtest");
+      FileMgr fm = new FileMgr(dbDirectory, 400, true, true);
+      BlockId blk = fm.append("testfile");
+
+      Page p1 = new Page(fm.blockSize());
+      p1.setInt(80, 345);
+      fm.write(blk, p1, 17);
+
+      Page p2 = new Page(fm.blockSize());
+      fm.read(blk, p2);
+      System.out.println("offset 80 contains " + p2.getInt(80)
+            + ", page LSN is " + p2.pageLsn());
+
+      // Simulate a torn write by changing one byte behind the file manager's back.
+      RandomAccessFile f = new RandomAccessFile(new File(dbDirectory, "testfile"), "rws");
+      f.seek(blk.number() * fm.blockSize() + 80);
+      f.write(99);
+      f.close();
+
+      System.out.println("block intact: " + fm.isIntact(blk));
+      try {
+         fm.read(blk, p2);
+      }
+      catch(PageCorruptedException e) {
+         System.out.println("Exception: " + e.getMessage());
+      }
+   }
+}
@@ -1,21 +1,76 @@
 package simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class FileMgr {
    private File dbDirectory;
    private int blocksize;
    private boolean isNew;
-   private Map<String, RandomAccessFile> openFiles = new HashMap<>();
+   private boolean syncOnWrite;
+   private boolean checksums;
+   private Map<String, RandomAccessFile> openFiles = new ConcurrentHashMap<>();
+
+   // Group commit: files written since the last force, and the
+   // tickets used to let one force cover many concurrent requests.
+   private Set<String> unsynced = ConcurrentHashMap.newKeySet();
+   private final Object forceLock = new Object();
+   private boolean forcing = false;
+   private long forceRequested = 0;
+   private long forceCompleted = 0;
+   private RuntimeException forceError; // the first failed force, which is never retried
 
    // Ex 3.15 Counters for the number of blocks read and written.
-   private long blocksRead;
-   private long blocksWritten;
+   LongAdder blocksRead = new LongAdder();
+   LongAdder blocksWritten = new LongAdder();
+
+   public static final int MIN_BLOCK_SIZE = 128;
+   public static final int MAX_BLOCK_SIZE = 1024 * 1024;
 
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, true);
+   }
+
+   /**
+    * Create a file manager for the specified directory.
+    * If syncOnWrite is true, files are opened in "rws" mode and
+    * every write is durable when it returns.
+    * Otherwise writes go to the OS cache, and become durable
+    * only when force() is called.
+    * @param dbDirectory the database directory
+    * @param blocksize the block size
+    * @param syncOnWrite whether each write is synchronous
+    */
+   public FileMgr(File dbDirectory, int blocksize, boolean syncOnWrite) {
+      this(dbDirectory, blocksize, syncOnWrite, false);
+   }
+
+   /**
+    * Create a file manager that may also keep page checksums.
+    * The last Page.TRAILER_SIZE bytes of every block hold the
+    * page LSN, stamped on each write, and a CRC32C of the block;
+    * clients may use only the first dataSize() bytes of a block.
+    * With checksums, the CRC is stamped on each write and
+    * verified on each read; otherwise it is left zero.
+    * @param dbDirectory the database directory
+    * @param blocksize the block size
+    * @param syncOnWrite whether each write is synchronous
+    * @param checksums whether blocks carry a checksum
+    * @throws IllegalArgumentException if the block size is out of range
+    */
+   public FileMgr(File dbDirectory, int blocksize, boolean syncOnWrite, boolean checksums) {
+      if (blocksize < MIN_BLOCK_SIZE || blocksize > MAX_BLOCK_SIZE)
+         throw new IllegalArgumentException("block size " + blocksize + " is not between "
+               + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE);
       this.dbDirectory = dbDirectory;
       this.blocksize = blocksize;
+      this.syncOnWrite = syncOnWrite;
+      this.checksums = checksums;
       isNew = !dbDirectory.exists();
 
       if (isNew)
@@ -24,58 +79,223 @@ public class FileMgr {
       for (String filename : dbDirectory.list())
          if (filename.startsWith("temp"))
             new File(dbDirectory, filename).delete();
-
-      // Ex 3.15 Initialize counters
-      blocksRead = 0;
-      blocksWritten = 0;
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   /**
+    * Read the specified block into the page.
+    * The read is positional, so it does not move a shared
+    * file pointer and needs no lock: reads and writes of
+    * different blocks proceed in parallel.
+    * @param blk a reference to the disk block
+    * @param p the page that receives the block's contents
+    */
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
-         blocksRead++; // Increment read counter
+         FileChannel fc = getFile(blk.fileName()).getChannel();
+         ByteBuffer bb = p.contents();
+         long pos = (long) blk.number() * blocksize;
+         while (bb.hasRemaining()) {
+            int n = fc.read(bb, pos + bb.position());
+            if (n < 0)
+               break;
+         }
+         if (!bb.hasRemaining())
+            verify(blk, p);
+         blocksRead.increment(); // Increment read counter
       } catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   /**
+    * Read a run of contiguous blocks of the file into the pages,
+    * using a single scattering read on the file's channel.
+    * Page i receives block startblk+i.
+    * Pages for blocks beyond the end of the file are not filled.
+    * @param filename the name of the file
+    * @param startblk the number of the first block of the run
+    * @param dest the pages that receive the blocks
+    * @return the number of whole blocks read
+    */
+   public int readRange(String filename, int startblk, Page[] dest) {
+      try {
+         RandomAccessFile f = getFile(filename);
+         ByteBuffer[] bufs = new ByteBuffer[dest.length];
+         for (int i = 0; i < dest.length; i++)
+            bufs[i] = dest[i].contents();
+         long total = (long) dest.length * blocksize;
+         long nread = 0;
+         // the scattering read uses the channel position, which
+         // only this method moves; appends to the file wait
+         synchronized (f) {
+            FileChannel fc = f.getChannel();
+            fc.position((long) startblk * blocksize);
+            while (nread < total) {
+               long n = fc.read(bufs);
+               if (n < 0)
+                  break;
+               nread += n;
+            }
+         }
+         int nblocks = (int) (nread / blocksize);
+         for (int i = 0; i < nblocks; i++)
+            verify(new BlockId(filename, startblk + i), dest[i]);
+         blocksRead.add(nblocks);
+         return nblocks;
+      } catch (IOException e) {
+         throw new RuntimeException("cannot read blocks " + startblk + "-"
+               + (startblk + dest.length - 1) + " of " + filename);
+      }
+   }
+
+   /**
+    * Write the page to the specified block,
+    * using a positional write like read.
+    * @param blk a reference to the disk block
+    * @param p the page to be written
+    */
+   public void write(BlockId blk, Page p) {
+      write(blk, p, p.pageLsn());
+   }
+
+   /**
+    * Write the page to the specified block, stamping the
+    * specified page LSN in its trailer.
+    * @param blk a reference to the disk block
+    * @param p the page to be written
+    * @param lsn the LSN of the latest log record for the page
+    */
+   public void write(BlockId blk, Page p, long lsn) {
+      prepareWrite(p, lsn);
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
-         blocksWritten++; // Increment write counter
+         FileChannel fc = getFile(blk.fileName()).getChannel();
+         ByteBuffer bb = p.contents();
+         long pos = (long) blk.number() * blocksize;
+         while (bb.hasRemaining())
+            fc.write(bb, pos + bb.position());
+         markUnsynced(blk.fileName());
+         blocksWritten.increment(); // Increment write counter
       } catch (IOException e) {
          throw new RuntimeException("cannot write block " + blk);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   /**
+    * Append a new, empty block to the end of the file.
+    * Appends to the same file are serialized on that file,
+    * so that two appenders never receive the same block number;
+    * appends to different files do not contend.
+    * @param filename the name of the file
+    * @return a reference to the new block
+    */
+   public BlockId append(String filename) {
       try {
          RandomAccessFile f = getFile(filename);
-         f.seek(blk.number() * blocksize);
-         f.write(b);
-         blocksWritten++; // Increment write counter
+         synchronized (f) {
+            FileChannel fc = f.getChannel();
+            int newblknum = (int) (fc.size() / blocksize);
+            BlockId blk = new BlockId(filename, newblknum);
+            ByteBuffer b = ByteBuffer.allocate(blocksize);
+            long pos = (long) blk.number() * blocksize;
+            while (b.hasRemaining())
+               fc.write(b, pos + b.position());
+            markUnsynced(filename);
+            blocksWritten.increment(); // Increment write counter
+            return blk;
+         }
       } catch (IOException e) {
-         throw new RuntimeException("cannot append block " + blk);
+         throw new RuntimeException("cannot append block to " + filename);
       }
-      return blk;
    }
 
    public int length(String filename) {
       try {
          RandomAccessFile f = getFile(filename);
-         return (int) (f.length() / blocksize);
+         return (int) (f.getChannel().size() / blocksize);
       } catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Make every write that completed before this call durable.
+    * The method does nothing when files are opened with
+    * sync-on-write.
+    * Concurrent callers are coalesced: while one thread forces
+    * the written files, later callers wait, and the next force
+    * covers all of them at once.
+    * A caller returns as soon as a force that started after
+    * its request has completed.
+    * A failed force is not retried: once fsync has reported an
+    * error, the kernel may have dropped the dirty pages it could
+    * not write, and a later fsync would succeed without them.
+    * The failure is therefore sticky, and every later force
+    * throws until the server restarts and recovery replays
+    * the log.
+    * @throws RuntimeException if the files cannot be forced,
+    * now or by an earlier call
+    */
+   public void force() {
+      if (syncOnWrite)
+         return;
+      long ticket;
+      try {
+         synchronized (forceLock) {
+            checkForced();
+            ticket = ++forceRequested;
+            while (forcing) {
+               forceLock.wait();
+               if (forceCompleted >= ticket)
+                  return;
+               checkForced();
+            }
+            forcing = true;
+            ticket = forceRequested;
+         }
+      } catch (InterruptedException e) {
+         throw new RuntimeException("interrupted while forcing files");
+      }
+      try {
+         for (String filename : new ArrayList<>(unsynced)) {
+            unsynced.remove(filename);
+            forceFile(filename);
+         }
+      } catch (RuntimeException e) {
+         synchronized (forceLock) {
+            forcing = false;
+            forceLock.notifyAll();
+         }
+         throw e;
+      }
+      synchronized (forceLock) {
+         forcing = false;
+         forceCompleted = Math.max(forceCompleted, ticket);
+         forceLock.notifyAll();
+      }
+   }
+
+   /**
+    * Read the specified block and return true if it
+    * matches its checksum.
+    * Recovery can use this to find the blocks whose last
+    * write was torn, without replaying the whole log.
+    * Always true if checksums are not kept.
+    * @param blk a reference to the disk block
+    * @return true if the block is intact
+    */
+   public boolean isIntact(BlockId blk) {
+      try {
+         read(blk, new Page(blocksize));
+         return true;
+      } catch (PageCorruptedException e) {
+         return false;
+      }
+   }
+
+   public boolean isSyncOnWrite() {
+      return syncOnWrite;
+   }
+
    public boolean isNew() {
       return isNew;
    }
@@ -84,29 +304,149 @@ public class FileMgr {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
+   /**
+    * Return the number of bytes of each block that clients may use,
+    * which excludes the page trailer.
+    * @return the usable size of a block
+    */
+   public int dataSize() {
+      return blocksize - Page.TRAILER_SIZE;
+   }
+
+   public boolean hasChecksums() {
+      return checksums;
+   }
+
+   RandomAccessFile getFile(String filename) throws IOException {
       RandomAccessFile f = openFiles.get(filename);
       if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+         synchronized (openFiles) {
+            f = openFiles.get(filename);
+            if (f == null) {
+               File dbTable = new File(dbDirectory, filename);
+               f = new RandomAccessFile(dbTable, syncOnWrite ? "rws" : "rw");
+               openFiles.put(filename, f);
+            }
+         }
       }
       return f;
    }
 
+   void prepareWrite(Page p, long lsn) {
+      if (checksums)
+         p.stamp(lsn);
+      else
+         p.setPageLsn(lsn);
+   }
+
+   void verify(BlockId blk, Page p) {
+      if (checksums && !p.isIntact())
+         throw new PageCorruptedException(blk);
+   }
+
+   /**
+    * Record that the file has writes which are not yet durable.
+    * Must be called after the write completes.
+    */
+   void markUnsynced(String filename) {
+      if (!syncOnWrite)
+         unsynced.add(filename);
+   }
+
+   void forceFile(String filename) {
+      try {
+         RandomAccessFile f = openFiles.get(filename);
+         if (f != null)
+            f.getChannel().force(true);
+      } catch (IOException e) {
+         RuntimeException failure = new RuntimeException("cannot force " + filename, e);
+         synchronized (forceLock) {
+            if (forceError == null)
+               forceError = failure;
+         }
+         throw failure;
+      }
+   }
+
+   /**
+    * Throw the failure of an earlier force, if there was one.
+    * The caller must hold the force lock.
+    */
+   private void checkForced() {
+      if (forceError != null)
+         throw new RuntimeException("an earlier force failed; restart the server to recover",
+                                    forceError);
+   }
+
    // Ex 3.15 Methods to get statistics.
    public long getBlocksRead() {
-      return blocksRead;
+      return blocksRead.sum();
    }
 
    public long getBlocksWritten() {
-      return blocksWritten;
+      return blocksWritten.sum();
    }
 
    public void deleteFile(String filename) {
+      closeFile(filename);
       File f = new File(dbDirectory, filename);
       if (f.exists()) {
          f.delete();
       }
    }
+
+   /**
+    * Return true if the database directory holds the specified file.
+    * Unlike length(), this does not create the file.
+    * @param filename the name of the file
+    * @return whether the file exists
+    */
+   public boolean exists(String filename) {
+      return new File(dbDirectory, filename).exists();
+   }
+
+   /**
+    * Rename a file of the database directory,
+    * replacing any file that has the new name.
+    * The file must not be in use.
+    * @param filename the current name of the file
+    * @param newname the new name of the file
+    */
+   public void renameFile(String filename, String newname) {
+      closeFile(newname);
+      moveFile(filename, new File(dbDirectory, newname));
+   }
+
+   /**
+    * Move a file of the database directory to the specified
+    * location, which may be in another directory or file system.
+    * The file must not be in use; its unforced writes are forced first.
+    * @param filename the name of the file
+    * @param target the new location of the file
+    */
+   public void moveFile(String filename, File target) {
+      forceFile(filename);
+      closeFile(filename);
+      try {
+         target.getAbsoluteFile().getParentFile().mkdirs();
+         Files.move(new File(dbDirectory, filename).toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+         throw new RuntimeException("cannot move " + filename + " to " + target, e);
+      }
+   }
+
+   void closeFile(String filename) {
+      unsynced.remove(filename);
+      RandomAccessFile f;
+      synchronized (openFiles) {
+         f = openFiles.remove(filename);
+      }
+      try {
+         if (f != null)
+            f.close();
+      } catch (IOException e) {
+         throw new RuntimeException("cannot close " + filename);
+      }
+   }
 }
@@ -0,0 +1,140 @@
+package simpledb.file;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A file manager that serves block reads and writes
+ * from memory-mapped regions of each file instead of
+ * seeking and reading through the file channel.
+ * Each file is mapped in fixed-size segments, which are
+ * mapped lazily and re-mapped as the file grows.
+ * Blocks that lie beyond the mapped part of a file
+ * are handled by the channel-based FileMgr methods.
+ * The Page and BlockId contract is unchanged:
+ * a read copies the block into the page, and a write
+ * copies the page into the mapping and, when writes are
+ * synchronous, forces it to disk.
+ * Reads and writes take no lock; only mapping a new or
+ * grown segment is serialized.
+ */
+public class MappedFileMgr extends FileMgr {
+   public static int SEGMENT_SIZE = 64 * 1024 * 1024; // 64 MB
+
+   private int segmentBlocks;
+   private Map<String, Map<Integer, MappedByteBuffer>> segments = new ConcurrentHashMap<>();
+
+   public MappedFileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, true);
+   }
+
+   public MappedFileMgr(File dbDirectory, int blocksize, boolean syncOnWrite) {
+      this(dbDirectory, blocksize, syncOnWrite, false);
+   }
+
+   public MappedFileMgr(File dbDirectory, int blocksize, boolean syncOnWrite, boolean checksums) {
+      super(dbDirectory, blocksize, syncOnWrite, checksums);
+      segmentBlocks = Math.max(1, SEGMENT_SIZE / blocksize);
+   }
+
+   public void read(BlockId blk, Page p) {
+      MappedByteBuffer seg = segmentFor(blk);
+      if (seg == null) {
+         super.read(blk, p);
+         return;
+      }
+      p.contents().put(0, seg, segmentOffset(blk), blockSize());
+      verify(blk, p);
+      blocksRead.increment();
+   }
+
+   /**
+    * Copy a run of contiguous blocks out of the mapping.
+    * No system call is needed for blocks that are mapped,
+    * so there is nothing to gain from a scattering read.
+    */
+   public int readRange(String filename, int startblk, Page[] dest) {
+      int nblocks = Math.max(0, Math.min(dest.length, length(filename) - startblk));
+      for (int i = 0; i < nblocks; i++)
+         read(new BlockId(filename, startblk + i), dest[i]);
+      return nblocks;
+   }
+
+   public void write(BlockId blk, Page p, long lsn) {
+      MappedByteBuffer seg = segmentFor(blk);
+      if (seg == null) {
+         super.write(blk, p, lsn);
+         return;
+      }
+      prepareWrite(p, lsn);
+      int offset = segmentOffset(blk);
+      seg.put(offset, p.contents(), 0, blockSize());
+      if (isSyncOnWrite())
+         seg.force(offset, blockSize());
+      else
+         markUnsynced(blk.fileName());
+      blocksWritten.increment();
+   }
+
+   public synchronized void deleteFile(String filename) {
+      segments.remove(filename);
+      super.deleteFile(filename);
+   }
+
+   synchronized void closeFile(String filename) {
+      segments.remove(filename);
+      super.closeFile(filename);
+   }
+
+   void forceFile(String filename) {
+      Map<Integer, MappedByteBuffer> segs = segments.get(filename);
+      if (segs != null)
+         for (MappedByteBuffer seg : segs.values())
+            seg.force();
+      super.forceFile(filename);
+   }
+
+   /**
+    * Return the mapped segment holding the specified block,
+    * mapping or re-mapping the segment if the file has grown
+    * past its current mapping.
+    * Returns null if the block lies beyond the end of the file.
+    * @param blk a reference to the disk block
+    * @return the segment containing that block, or null
+    */
+   private MappedByteBuffer segmentFor(BlockId blk) {
+      Map<Integer, MappedByteBuffer> segs = segments.computeIfAbsent(blk.fileName(), k -> new ConcurrentHashMap<>());
+      int segnum = blk.number() / segmentBlocks;
+      int needed = segmentOffset(blk) + blockSize();
+      MappedByteBuffer seg = segs.get(segnum);
+      if (seg != null && seg.capacity() >= needed)
+         return seg;
+      return mapSegment(blk, segs, segnum, needed);
+   }
+
+   private synchronized MappedByteBuffer mapSegment(BlockId blk, Map<Integer, MappedByteBuffer> segs,
+                                                    int segnum, int needed) {
+      MappedByteBuffer seg = segs.get(segnum);
+      if (seg != null && seg.capacity() >= needed)
+         return seg;
+      try {
+         FileChannel fc = getFile(blk.fileName()).getChannel();
+         long start = (long) segnum * segmentBlocks * blockSize();
+         long mapsize = Math.min((long) segmentBlocks * blockSize(), fc.size() - start);
+         if (mapsize < needed)
+            return null;
+         seg = fc.map(FileChannel.MapMode.READ_WRITE, start, mapsize);
+         segs.put(segnum, seg);
+         return seg;
+      } catch (IOException e) {
+         throw new RuntimeException("cannot map block " + blk);
+      }
+   }
+
+   private int segmentOffset(BlockId blk) {
+      return (blk.number() % segmentBlocks) * blockSize();
+   }
+}
@@ -3,11 +3,17 @@ package simpledb.file;
 import java.nio.ByteBuffer;
 import java.nio.charset.*;
 import java.time.LocalDate;
+import java.util.zip.CRC32C;
 
 public class Page {
    private ByteBuffer bb;
    public static Charset CHARSET = StandardCharsets.US_ASCII;
 
+   // The last TRAILER_SIZE bytes of a block hold the page LSN
+   // followed by a CRC32C of everything before the CRC,
+   // which is zero unless the file manager keeps checksums.
+   public static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
    public Page(int blocksize) {
       bb = ByteBuffer.allocateDirect(blocksize);
    }
@@ -16,6 +22,15 @@ public class Page {
       bb = ByteBuffer.wrap(b);
    }
 
+   /**
+    * Create a page whose contents are the specified byte buffer,
+    * such as a slice of a larger region of memory.
+    * @param bb the buffer holding the page
+    */
+   public Page(ByteBuffer bb) {
+      this.bb = bb;
+   }
+
    // Programming Ex 3.16: Check if the data fits in the buffer
    private void checkCapacity(int offset, int length) {
       if (offset + length > bb.capacity()) {
@@ -32,6 +47,15 @@ public class Page {
       bb.putInt(offset, n);
    }
 
+   public long getLong(int offset) {
+      return bb.getLong(offset);
+   }
+
+   public void setLong(int offset, long n) {
+      checkCapacity(offset, Long.BYTES);
+      bb.putLong(offset, n);
+   }
+
    // Additional methods for Programming Ex 3.17
    public short getShort(int offset) {
       return bb.getShort(offset);
@@ -55,19 +79,19 @@ public class Page {
       bb.putLong(offset, date.toEpochDay());
    }
 
+   // The byte array methods use absolute positions, so that
+   // threads may copy into disjoint parts of a page in parallel.
    public byte[] getBytes(int offset) {
-      bb.position(offset);
-      int length = bb.getInt();
+      int length = bb.getInt(offset);
       byte[] b = new byte[length];
-      bb.get(b);
+      bb.get(offset + Integer.BYTES, b);
       return b;
    }
 
    public void setBytes(int offset, byte[] b) {
       checkCapacity(offset, Integer.BYTES + b.length);
-      bb.position(offset);
-      bb.putInt(b.length);
-      bb.put(b);
+      bb.putInt(offset, b.length);
+      bb.put(offset + Integer.BYTES, b);
    }
 
    // Programming Ex 3.18: Implementing strings with delimiter
@@ -87,11 +111,66 @@ public class Page {
       setBytes(offset, b);
    }
 
+   /**
+    * Copy the contents of the specified page,
+    * which must have the same size, into this page.
+    * @param p the page to copy
+    */
+   public void copyFrom(Page p) {
+      bb.put(0, p.bb, 0, bb.capacity());
+   }
+
    public static int maxLength(int strlen) {
       float bytesPerChar = CHARSET.newEncoder().maxBytesPerChar();
       return Integer.BYTES + (strlen * (int) bytesPerChar);
    }
 
+   /**
+    * Return the LSN stamped in the page's trailer
+    * when the page was last written to disk:
+    * the LSN of the latest log record for the page.
+    * @return the page LSN
+    */
+   public long pageLsn() {
+      return bb.getLong(bb.capacity() - TRAILER_SIZE);
+   }
+
+   void setPageLsn(long lsn) {
+      bb.putLong(bb.capacity() - TRAILER_SIZE, lsn);
+   }
+
+   void stamp(long lsn) {
+      int crcpos = bb.capacity() - Integer.BYTES;
+      setPageLsn(lsn);
+      bb.putInt(crcpos, checksum(crcpos));
+   }
+
+   /**
+    * Return true if the stored checksum matches the page contents.
+    * A page that is entirely zero has never been written,
+    * and is also considered intact.
+    */
+   boolean isIntact() {
+      int crcpos = bb.capacity() - Integer.BYTES;
+      int stored = bb.getInt(crcpos);
+      if (stored == checksum(crcpos))
+         return true;
+      if (stored != 0)
+         return false;
+      for (int i = 0; i < bb.capacity(); i++)
+         if (bb.get(i) != 0)
+            return false;
+      return true;
+   }
+
+   private int checksum(int length) {
+      CRC32C crc = new CRC32C();
+      ByteBuffer data = bb.duplicate();
+      data.position(0).limit(length);
+      crc.update(data);
+      return (int) crc.getValue();
+   }
+
    ByteBuffer contents() {
       bb.position(0);
       return bb;
@@ -0,0 +1,20 @@
+package simpledb.file;
+
+/**
+ * A runtime exception indicating that a block read from disk
+ * does not match its checksum, because the write that produced
+ * it was torn or the disk contents were damaged.
+ */
+@SuppressWarnings("serial")
+public class PageCorruptedException extends RuntimeException {
+   private BlockId blk;
+
+   public PageCorruptedException(BlockId blk) {
+      super("checksum mismatch in block " + blk);
+      this.blk = blk;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+}
@@ -28,6 +28,8 @@ public class BTPage {
       this.tx = tx;
       this.currentblk = currentblk;
       this.layout = layout;
+      // a node must hold enough entries to be split in two
+      layout.checkFits(tx.blockSize() - 2 * Integer.BYTES, 3);
       tx.pin(currentblk);
    }
    
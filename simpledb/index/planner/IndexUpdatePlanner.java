@@ -20,17 +20,25 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       String tblname = data.tableName();
       Plan p = new TablePlan(tx, tblname, mdm);
       
-      // first, insert the record
+      // first, insert the record with its values, as one logged change
+      Map<String,Object> vals = new HashMap<>();
+      Iterator<Constant> valIter = data.vals().iterator();
+      for (String fldname : data.fields()) {
+         Constant val = valIter.next();
+         if (!val.isNull())
+            vals.put(fldname, val.asJavaVal());
+      }
       UpdateScan s = (UpdateScan) p.open();
-      s.insert();
+      s.insert(vals);
       RID rid = s.getRid();
       
-      // then modify each field, inserting an index record if appropriate
+      // then insert an index record for each indexed field
       Map<String,IndexInfo> indexes = mdm.getIndexInfo(tblname, tx);
-      Iterator<Constant> valIter = data.vals().iterator();
+      valIter = data.vals().iterator();
       for (String fldname : data.fields()) {
          Constant val = valIter.next();
-         s.setVal(fldname, val);
+         if (val.isNull())
+            s.setVal(fldname, val);
          
          IndexInfo ii = indexes.get(fldname);
          if (ii != null) {
@@ -100,7 +108,10 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       while (s.next()) {
          // first, update the record
          Constant newval = data.newValue().evaluate(s);
-         s.setVal(fldname, newval);
+         if (newval.isNull())
+            s.setVal(fldname, newval);
+         else
+            s.setValues(Map.of(fldname, newval.asJavaVal()));
 
          // then update the appropriate index, if it exists
          if (ii != null) {
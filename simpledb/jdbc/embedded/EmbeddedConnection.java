@@ -13,10 +13,11 @@ class EmbeddedConnection extends ConnectionAdapter {
    private Planner planner;
    private List<EmbeddedStatement> openStatements;
    private boolean autoCommit = true;
+   private boolean readOnly = false;
 
    public EmbeddedConnection(SimpleDB db) {
       this.db = db;
-      currentTx = db.newTx();
+      currentTx = newTx();
       planner = db.planner();
       openStatements = new ArrayList<>();
    }
@@ -33,19 +34,47 @@ class EmbeddedConnection extends ConnectionAdapter {
    public void commit() throws SQLException {
       currentTx.commit();
       printStats();
-      currentTx = db.newTx();
+      currentTx = newTx();
    }
 
    public void rollback() throws SQLException {
       currentTx.rollback();
       printStats();
-      currentTx = db.newTx();
+      currentTx = newTx();
    }
 
    Transaction getTransaction() {
       return currentTx;
    }
 
+   /**
+    * Declare whether the connection's transactions are read-only;
+    * a read-only transaction logs nothing and forces nothing.
+    * In auto-commit mode each statement has already committed its
+    * work, so the idle current transaction is replaced at once.
+    * Otherwise the current transaction may hold uncommitted work,
+    * and the declaration applies from the next transaction,
+    * after the caller commits or rolls back.
+    * @param readOnly true if the connection will not change the database
+    */
+   public void setReadOnly(boolean readOnly) throws SQLException {
+      if (readOnly == this.readOnly)
+         return;
+      this.readOnly = readOnly;
+      if (autoCommit) {
+         currentTx.commit();
+         currentTx = newTx();
+      }
+   }
+
+   public boolean isReadOnly() throws SQLException {
+      return readOnly;
+   }
+
+   private Transaction newTx() {
+      return readOnly ? db.newReadOnlyTx() : db.newTx();
+   }
+
    private void printStats() {
       FileMgr fileMgr = db.getFileMgr();
       System.out.println("Blocks read: " + fileMgr.getBlocksRead());
@@ -87,7 +116,7 @@ class EmbeddedConnection extends ConnectionAdapter {
       currentTx.commit();
       if(autoCommit) {
          // Start a new transaction after the commit
-         currentTx = db.newTx();
+         currentTx = newTx();
       }
    }
 
@@ -95,7 +124,7 @@ class EmbeddedConnection extends ConnectionAdapter {
       currentTx.rollback();
       if(autoCommit) {
          // Start a new transaction after the rollback
-         currentTx = db.newTx();
+         currentTx = newTx();
       }
    }
 }
@@ -34,5 +34,23 @@ public class NetworkConnection extends ConnectionAdapter {
          throw new SQLException(e);
       }
    }
+
+   public void setReadOnly(boolean readOnly) throws SQLException {
+      try {
+         rconn.setReadOnly(readOnly);
+      }
+      catch(Exception e) {
+         throw new SQLException(e);
+      }
+   }
+
+   public boolean isReadOnly() throws SQLException {
+      try {
+         return rconn.isReadOnly();
+      }
+      catch(Exception e) {
+         throw new SQLException(e);
+      }
+   }
 }
 
@@ -15,10 +15,12 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
    private static final int MAX_CONNECTIONS = 10;
    private static int currentConnections = 0;
    private boolean autoCommit = true;
+   private boolean readOnly = false;
+   private volatile boolean closed = false;
 
    RemoteConnectionImpl(SimpleDB db) throws RemoteException {
       this.db = db;
-      currentTx = db.newTx();
+      currentTx = newTx();
       planner = db.planner();
       openStatements = new ArrayList<>();
    }
@@ -29,23 +31,58 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
 
    public void close() throws RemoteException {
       currentTx.commit();
+      closed = true;
       printStats();
    }
 
+   /**
+    * Return true if the connection has not been closed.
+    * The server is not shut down while a connection is open.
+    * @return true if the connection is open
+    */
+   boolean isOpen() {
+      return !closed;
+   }
+
    Transaction getTransaction() {
       return currentTx;
    }
 
+   /**
+    * Declare whether the connection's transactions are read-only.
+    * In auto-commit mode the idle current transaction is replaced
+    * at once; otherwise the declaration applies from the next
+    * transaction, after the client commits or rolls back.
+    * @param readOnly true if the connection will not change the database
+    */
+   public void setReadOnly(boolean readOnly) throws RemoteException {
+      if (readOnly == this.readOnly)
+         return;
+      this.readOnly = readOnly;
+      if (autoCommit) {
+         currentTx.commit();
+         currentTx = newTx();
+      }
+   }
+
+   public boolean isReadOnly() throws RemoteException {
+      return readOnly;
+   }
+
+   private Transaction newTx() {
+      return readOnly ? db.newReadOnlyTx() : db.newTx();
+   }
+
    void commit() {
       currentTx.commit();
       printStats();
-      currentTx = db.newTx();
+      currentTx = newTx();
    }
 
    void rollback() {
       currentTx.rollback();
       printStats();
-      currentTx = db.newTx();
+      currentTx = newTx();
    }
 
    private void printStats() {
@@ -96,7 +133,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
       currentTx.commit();
       if (autoCommit) {
          // Start a new transaction after the commit
-         currentTx = db.newTx();
+         currentTx = newTx();
       }
    }
 
@@ -104,7 +141,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
       currentTx.rollback();
       if (autoCommit) {
          // Start a new transaction after the rollback
-         currentTx = db.newTx();
+         currentTx = newTx();
       }
    }
 }
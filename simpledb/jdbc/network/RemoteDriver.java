@@ -4,5 +4,6 @@ import java.rmi.*;
 
 public interface RemoteDriver extends Remote {
    public RemoteConnection connect() throws RemoteException;
+   public void shutdown() throws RemoteException;
 }
 
@@ -1,12 +1,16 @@
 package simpledb.jdbc.network;
 
+import java.net.*;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.*;
+import java.util.*;
 import simpledb.server.SimpleDB;
 
 @SuppressWarnings("serial")
 public class RemoteDriverImpl extends UnicastRemoteObject implements RemoteDriver {
    private SimpleDB db;
+   private List<RemoteConnectionImpl> connections = new ArrayList<>();
+   private boolean shuttingDown = false;
 
    public RemoteDriverImpl(SimpleDB db) throws RemoteException {
       this.db = db;
@@ -22,7 +26,59 @@ public class RemoteDriverImpl extends UnicastRemoteObject implements RemoteDrive
          throw new RemoteException("User authentication failed.");
       }
 
-      return new RemoteConnectionImpl(db);
+      synchronized (this) {
+         if (shuttingDown)
+            throw new RemoteException("the server is shutting down");
+         RemoteConnectionImpl conn = new RemoteConnectionImpl(db);
+         connections.add(conn);
+         return conn;
+      }
+   }
+
+   /**
+    * Shut the database down and end the server process,
+    * once this call has returned to the client.
+    * Only a client on the server's own host may do so,
+    * and only when no connection is open; otherwise
+    * the call is refused and the server keeps running.
+    */
+   public void shutdown() throws RemoteException {
+      checkLocalClient();
+      synchronized (this) {
+         connections.removeIf(conn -> !conn.isOpen());
+         if (!connections.isEmpty())
+            throw new RemoteException("cannot shut down: "
+                  + connections.size() + " connections are still open");
+         shuttingDown = true;
+      }
+      db.shutdown();
+      System.out.println("database server shutting down");
+      // The driver cannot be unexported while this call is in
+      // progress, so a separate thread does it once the call has
+      // returned, and then ends the process.
+      Thread exiter = new Thread(() -> {
+         try {
+            while (!UnicastRemoteObject.unexportObject(this, false))
+               Thread.sleep(10);
+         }
+         catch(Exception e) {
+            // exit now
+         }
+         System.exit(0);
+      }, "simpledb-shutdown");
+      exiter.start();
+   }
+
+   private void checkLocalClient() throws RemoteException {
+      try {
+         String host = RemoteServer.getClientHost();
+         if (!InetAddress.getByName(host).isLoopbackAddress())
+            throw new RemoteException("shutdown refused: " + host
+                  + " is not the server's host");
+      }
+      catch(ServerNotActiveException | UnknownHostException e) {
+         throw new RemoteException("shutdown refused: the client's host is unknown", e);
+      }
    }
 
    private boolean authenticateUser(String username, String password) {
@@ -0,0 +1,96 @@
+package simpledb.log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.file.*;
+
+/**
+ * The table of interned file names, which lets log records
+ * identify a file by a small integer instead of by its name.
+ * Ids are assigned in order from 0 and never reused.
+ * The table is kept in a file of its own, in which each block
+ * holds a count followed by that many names; a new name is
+ * written and forced before its id is returned, so every id
+ * that appears in the log can be resolved after a restart,
+ * whichever segments of the log have since been removed.
+ * Temporary tables are never logged, so their names,
+ * which are new for every query, do not enter the table.
+ */
+class FileIdTable {
+   private FileMgr fm;
+   private String filename;
+   private Map<String, Integer> ids = new ConcurrentHashMap<>();
+   private List<String> names = new ArrayList<>();
+   private Page page;
+   private int blknum, count, pos;
+
+   FileIdTable(FileMgr fm, String filename) {
+      this.fm = fm;
+      this.filename = filename;
+      page = new Page(fm.blockSize());
+      int size = fm.length(filename);
+      blknum = Math.max(size - 1, 0);
+      count = 0;
+      pos = Integer.BYTES;
+      for (int b = 0; b < size; b++) {
+         fm.read(new BlockId(filename, b), page);
+         count = page.getInt(0);
+         pos = Integer.BYTES;
+         for (int i = 0; i < count; i++) {
+            byte[] name = page.getBytes(pos);
+            pos += Integer.BYTES + name.length;
+            add(new String(name, Page.CHARSET));
+         }
+      }
+   }
+
+   /**
+    * Return the id of the specified file,
+    * assigning and saving one if the file has none.
+    * @param name the name of the file
+    * @return its id
+    */
+   int id(String name) {
+      Integer id = ids.get(name);
+      return (id != null) ? id : assign(name);
+   }
+
+   /**
+    * Return the name of the file having the specified id.
+    * @param id the id of a file
+    * @return its name
+    */
+   synchronized String name(int id) {
+      if (id < 0 || id >= names.size())
+         throw new IllegalArgumentException("unknown log file id " + id);
+      return names.get(id);
+   }
+
+   private synchronized int assign(String name) {
+      Integer id = ids.get(name);
+      if (id != null)
+         return id;
+      byte[] b = name.getBytes(Page.CHARSET);
+      if (Integer.BYTES + Integer.BYTES + b.length > fm.dataSize())
+         throw new IllegalArgumentException("file name too long for the log: " + name);
+      if (pos + Integer.BYTES + b.length > fm.dataSize()) {
+         page = new Page(fm.blockSize());
+         blknum++;
+         count = 0;
+         pos = Integer.BYTES;
+      }
+      page.setBytes(pos, b);
+      pos += Integer.BYTES + b.length;
+      page.setInt(0, ++count);
+      fm.write(new BlockId(filename, blknum), page);
+      fm.force();
+      return add(name);
+   }
+
+   private int add(String name) {
+      int id = names.size();
+      names.add(name);
+      ids.put(name, id);
+      return id;
+   }
+}
@@ -0,0 +1,89 @@
+package simpledb.log;
+
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * A class that moves through the records of the log
+ * from an earlier record to the most recent one,
+ * as the redo phase of recovery does.
+ * Since the records of a block are written from its end
+ * towards its start, the iterator reads a block, collects the
+ * positions of its records, and returns them in reverse.
+ */
+public class ForwardLogIterator implements Iterator<byte[]> {
+   private LogMgr lm;
+   private FileMgr fm;
+   private long blknum, lastblk, endLSN;
+   private Page p;
+   private int[] positions;
+   private int count;
+   private long lsn = -1;
+
+   /**
+    * Creates an iterator over the records whose LSNs lie
+    * between the specified LSNs. The log must have been
+    * flushed through the end LSN.
+    * @param lm the log manager
+    * @param startLSN the LSN of the first record to return
+    * @param endLSN the LSN of the last record to return
+    */
+   ForwardLogIterator(LogMgr lm, long startLSN, long endLSN) {
+      this.lm = lm;
+      this.fm = lm.fileMgr();
+      this.endLSN = endLSN;
+      int blocksize = fm.blockSize();
+      p = new Page(blocksize);
+      positions = new int[fm.dataSize() / Integer.BYTES];
+      lastblk = (endLSN - 1) / blocksize;
+      long startblk = (startLSN - 1) / blocksize;
+      loadBlock(startblk, blocksize - (int) (startLSN - startblk * blocksize));
+   }
+
+   public boolean hasNext() {
+      while (count == 0 && blknum < lastblk)
+         loadBlock(blknum + 1, fm.dataSize());
+      return count > 0 && lsnOf(positions[count - 1]) <= endLSN;
+   }
+
+   /**
+    * Returns the next record of the log, in the order
+    * in which the records were appended.
+    * @return the next log record
+    */
+   public byte[] next() {
+      if (!hasNext())
+         throw new NoSuchElementException();
+      int pos = positions[--count];
+      lsn = lsnOf(pos);
+      return p.getBytes(pos);
+   }
+
+   /**
+    * Return the LSN of the record most recently returned by next().
+    * @return the LSN of the current record
+    */
+   public long lsn() {
+      return lsn;
+   }
+
+   /**
+    * Read the specified block and collect the positions of
+    * its records that lie at or before the specified position,
+    * which are the records at or after it in log order.
+    */
+   private void loadBlock(long b, int maxpos) {
+      blknum = b;
+      fm.read(lm.blockId(b), p);
+      count = 0;
+      int pos = p.getInt(0);
+      while (pos < fm.dataSize() && pos <= maxpos) {
+         positions[count++] = pos;
+         pos += Integer.BYTES + p.getInt(pos);
+      }
+   }
+
+   private long lsnOf(int pos) {
+      return blknum * fm.blockSize() + (fm.blockSize() - pos);
+   }
+}
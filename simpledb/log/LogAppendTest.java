@@ -0,0 +1,73 @@
+package simpledb.log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Appends records from several threads at once, and checks
+ * that every record gets its own LSN, that each record can be
+ * read back by its LSN, and that the records of each thread
+ * appear in the log in the order the thread appended them.
+ */
+public class LogAppendTest {
+   private static final int THREADS = 4;
+   private static final int RECORDS = 5000; // per thread
+   private static LogMgr lm;
+   private static Set<Long> lsns = ConcurrentHashMap.newKeySet();
+   private static int misread = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("logappendtest", 400, 8);
+      // a small ring, so that appenders often wait for the writer
+      lm = new LogMgr(db.fileMgr(), "appendtest.log", 3, 16000, null);
+
+      Thread[] threads = new Thread[THREADS];
+      for (int t = 0; t < THREADS; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> appendRecords(id));
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      System.out.println(lsns.size() + " distinct LSNs (should be " + THREADS * RECORDS + ")");
+      System.out.println(misread + " records read back wrongly by LSN (should be 0)");
+
+      // the iterator returns the records from the most recent,
+      // and a log left by an earlier run holds older ones
+      int[] next = new int[THREADS];
+      Arrays.fill(next, RECORDS - 1);
+      int n = 0, wrong = 0;
+      Iterator<byte[]> iter = lm.iterator();
+      while (n < THREADS * RECORDS && iter.hasNext()) {
+         Page p = new Page(iter.next());
+         int id = p.getInt(0);
+         if (p.getInt(Integer.BYTES) != next[id]--)
+            wrong++;
+         n++;
+      }
+      System.out.println(n + " records in the log, " + wrong + " out of order (should be 0)");
+      lm.close();
+   }
+
+   // Append the thread's records, flushing now and then and
+   // reading some of them back while the others keep appending.
+   private static void appendRecords(int id) {
+      for (int i = 0; i < RECORDS; i++) {
+         byte[] rec = new byte[2 * Integer.BYTES];
+         Page p = new Page(rec);
+         p.setInt(0, id);
+         p.setInt(Integer.BYTES, i);
+         long lsn = lm.append(rec);
+         lsns.add(lsn);
+         if (i % 100 == 0)
+            lm.flush(lsn);
+         if (i % 10 == 0 && new Page(lm.read(lsn)).getInt(Integer.BYTES) != i) {
+            synchronized (LogAppendTest.class) {
+               misread++;
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,78 @@
+package simpledb.log;
+
+import simpledb.file.Page;
+
+/**
+ * Reads the values of a log record built by a {@link LogEncoder},
+ * in the order in which they were appended.
+ */
+public class LogDecoder {
+   private byte[] buf;
+   private int pos;
+
+   /**
+    * Create a decoder positioned at the start of the specified record.
+    * @param buf the bytes of the record
+    */
+   public LogDecoder(byte[] buf) {
+      this.buf = buf;
+      this.pos = 0;
+   }
+
+   public int getByte() {
+      return buf[pos++] & 0xFF;
+   }
+
+   /**
+    * Read a value appended by {@link LogEncoder#putVarint}.
+    * @return the value
+    */
+   public long getVarint() {
+      long n = 0;
+      int shift = 0;
+      byte b;
+      do {
+         b = buf[pos++];
+         n |= (long) (b & 0x7F) << shift;
+         shift += 7;
+      } while (b < 0);
+      return n;
+   }
+
+   /**
+    * Read a varint that is known to fit in an int,
+    * such as a transaction number or an offset.
+    * @return the value
+    */
+   public int getInt() {
+      return (int) getVarint();
+   }
+
+   /**
+    * Read a value appended by {@link LogEncoder#putSigned}.
+    * @return the value
+    */
+   public long getSigned() {
+      long n = getVarint();
+      return (n >>> 1) ^ -(n & 1);
+   }
+
+   /**
+    * Read a string appended by {@link LogEncoder#putString}.
+    * @return the string
+    */
+   public String getString() {
+      int length = getInt();
+      String s = new String(buf, pos, length, Page.CHARSET);
+      pos += length;
+      return s;
+   }
+
+   /**
+    * Return true if the record has values left to read.
+    * @return whether the end of the record has been reached
+    */
+   public boolean hasMore() {
+      return pos < buf.length;
+   }
+}
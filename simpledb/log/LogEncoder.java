@@ -0,0 +1,104 @@
+package simpledb.log;
+
+import java.util.Arrays;
+import simpledb.file.Page;
+
+/**
+ * Builds a log record in a compact binary form.
+ * Integers are written as varints: seven bits to a byte,
+ * low-order group first, with the high bit set on every byte
+ * but the last, so that the small values that make up most
+ * of a record (transaction numbers, file ids, block numbers
+ * and offsets) take one or two bytes instead of four or eight.
+ * Signed values are zigzag-encoded first, so that small
+ * negative values are short as well.
+ * @see LogDecoder
+ */
+public class LogEncoder {
+   private byte[] buf;
+   private int pos = 0;
+
+   /**
+    * Create an encoder for a record of about the specified size.
+    * The encoder grows as needed.
+    * @param capacity the expected size of the record
+    */
+   public LogEncoder(int capacity) {
+      buf = new byte[Math.max(capacity, 8)];
+   }
+
+   public LogEncoder putByte(int b) {
+      ensure(1);
+      buf[pos++] = (byte) b;
+      return this;
+   }
+
+   /**
+    * Overwrite a byte that has already been appended,
+    * such as a flag that is known only at the end.
+    * @param pos the position of the byte in the record
+    * @param b the new value of the byte
+    */
+   public void setByte(int pos, int b) {
+      buf[pos] = (byte) b;
+   }
+
+   /**
+    * Append a non-negative value as a varint.
+    * @param n the value
+    * @return this encoder
+    */
+   public LogEncoder putVarint(long n) {
+      ensure(10);
+      while ((n & ~0x7FL) != 0) {
+         buf[pos++] = (byte) ((n & 0x7F) | 0x80);
+         n >>>= 7;
+      }
+      buf[pos++] = (byte) n;
+      return this;
+   }
+
+   /**
+    * Append a value of either sign as a zigzag-encoded varint.
+    * @param n the value
+    * @return this encoder
+    */
+   public LogEncoder putSigned(long n) {
+      return putVarint((n << 1) ^ (n >> 63));
+   }
+
+   /**
+    * Append a string as its length in bytes followed by its bytes.
+    * @param s the string
+    * @return this encoder
+    */
+   public LogEncoder putString(String s) {
+      byte[] b = s.getBytes(Page.CHARSET);
+      putVarint(b.length);
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, pos, b.length);
+      pos += b.length;
+      return this;
+   }
+
+   /**
+    * Return the number of bytes appended so far.
+    * @return the size of the record
+    */
+   public int size() {
+      return pos;
+   }
+
+   /**
+    * Return the record built so far.
+    * @return a copy of the appended bytes
+    */
+   public byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+   }
+
+   private void ensure(int n) {
+      if (pos + n > buf.length)
+         buf = Arrays.copyOf(buf, Math.max(2 * buf.length, pos + n));
+   }
+}
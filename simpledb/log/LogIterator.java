@@ -2,49 +2,77 @@ package simpledb.log;
 
 import java.util.Iterator;
 import simpledb.file.*;
-import simpledb.buffer.Buffer;
-import simpledb.buffer.BufferMgr;
 
-class LogIterator implements Iterator<byte[]> {
-   private BufferMgr bufferMgr;
-   private BlockId blk;
-   private Buffer buffer;
+/**
+ * A class that provides the ability to move through the
+ * records of the log in reverse order.
+ */
+public class LogIterator implements Iterator<byte[]> {
+   private LogMgr lm;
+   private FileMgr fm;
+   private long blknum;
    private Page p;
    private int currentpos;
-   private int boundary;
+   private long lsn = -1;
 
-   public LogIterator(BufferMgr bufferMgr, BlockId blk) {
-      this.bufferMgr = bufferMgr;
-      this.blk = blk;
-      buffer = bufferMgr.pin(blk);
-      p = buffer.contents();
-      moveToBlock(blk);
+   /**
+    * Creates an iterator for the records in the log,
+    * positioned before the record at the specified
+    * position of the specified log block.
+    * A position equal to the data size of a block
+    * denotes the end of the block.
+    */
+   LogIterator(LogMgr lm, long blknum, int pos) {
+      this.lm = lm;
+      this.fm = lm.fileMgr();
+      this.blknum = blknum;
+      p = new Page(fm.blockSize());
+      fm.read(lm.blockId(blknum), p);
+      currentpos = pos;
    }
 
+   /**
+    * Determines if the current log record
+    * is the earliest record in the log.
+    * @return true if there is an earlier record
+    */
    public boolean hasNext() {
-      return currentpos < p.contents().capacity() || blk.number() > 0;
+      return currentpos < fm.dataSize() || blknum > lm.firstBlock();
    }
 
+   /**
+    * Moves to the next log record in the block.
+    * If there are no more log records in the block,
+    * then move to the previous block
+    * and return the log record from there.
+    * @return the next earliest log record
+    */
    public byte[] next() {
-      if (currentpos == p.contents().capacity()) {
-         bufferMgr.unpin(buffer);
-         blk = new BlockId(blk.fileName(), blk.number() - 1);
-         buffer = bufferMgr.pin(blk);
-         p = buffer.contents();
-         moveToBlock(blk);
+      if (currentpos == fm.dataSize()) {
+         blknum--;
+         moveToBlock(blknum);
       }
+      lsn = blknum * fm.blockSize() + (fm.blockSize() - currentpos);
       byte[] rec = p.getBytes(currentpos);
       currentpos += Integer.BYTES + rec.length;
       return rec;
    }
 
-   private void moveToBlock(BlockId blk) {
-      boundary = p.getInt(0);
-      currentpos = boundary;
+   /**
+    * Return the LSN of the record most recently returned by next().
+    * @return the LSN of the current record
+    */
+   public long lsn() {
+      return lsn;
    }
 
-   // Ensure to unpin the buffer when the iterator is no longer in use
-   protected void finalize() {
-      bufferMgr.unpin(buffer);
+   /**
+    * Moves to the specified log block
+    * and positions it at the first record in that block
+    * (i.e., the most recent one).
+    */
+   private void moveToBlock(long blknum) {
+      fm.read(lm.blockId(blknum), p);
+      currentpos = p.getInt(0);
    }
 }
@@ -1,210 +1,793 @@
 package simpledb.log;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 
-import simpledb.buffer.Buffer;
-import simpledb.buffer.BufferMgr;
 import simpledb.file.*;
 
-import java.util.Iterator;
-import java.util.List;
-import java.util.Date;
-
 /**
  * The log manager, which is responsible for
- * writing log records into a log file using a buffer manager.
+ * writing log records into a log file.
+ * <p>
+ * The log is a sequence of blocks, numbered from 0, stored
+ * in segment files of a fixed number of blocks each; block n
+ * is in segment n / segmentBlocks, which is the file named
+ * by the log file name followed by the segment number.
+ * A manifest records the segment size and the oldest and
+ * newest segments. Each block starts with its boundary and
+ * its own block number, so that a block left in a recycled
+ * segment file from its earlier life is never mistaken for
+ * part of the log.
+ * <p>
+ * The LSN of a record is its position in the log.
+ * Since the records of a block are written from the end of
+ * the block towards its start, the position is counted from
+ * the end of the block: a record at offset pos of block n has
+ * LSN n*blocksize + (blocksize - pos). LSNs therefore increase
+ * with every record, survive restarts, and locate their record
+ * without a search.
+ * <p>
+ * Records are appended to a ring of in-memory log pages,
+ * which are kept apart from the buffer pool.
+ * An appender reserves the space of its record in the
+ * current page with a single compare-and-set, and then
+ * copies its record in parallel with the other appenders;
+ * only moving to the next page takes the log manager's lock.
+ * Each page keeps a completion watermark, the longest prefix
+ * of its records that have all been copied, and only records
+ * below the watermark are ever written.
+ * A dedicated writer thread writes the filled pages to the
+ * log in order, together with the partly filled page
+ * when a flush asks for it, and then forces the log once.
+ * A committing transaction therefore waits only until its
+ * records are durable, and the commits that arrive while the
+ * writer is busy all share the writer's next force.
+ * <p>
+ * When a checkpoint declares that the records below an LSN
+ * are no longer needed, a cleaner thread removes the segments
+ * that lie entirely below it: it moves them to the archive
+ * directory if there is one, and otherwise keeps up to
+ * SPARE_SEGMENTS of them, renamed, to be reused as the
+ * next segments, and deletes the rest.
+ * <p>
+ * The log manager also interns the names of the files that
+ * log records refer to, so that a record can identify its
+ * file by a small id; see {@link #fileId(String)}.
  */
 public class LogMgr {
-   private BufferMgr bufferMgr;
-   private String logfile;
-   private Buffer currentBuffer;
-   private Page logpage;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   public static int SPARE_SEGMENTS = 2;
+   private static final long SEALED = Long.MIN_VALUE;
+   private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES; // boundary, block number
+   private static final int MANIFEST_MAGIC = 0x53444c4d; // "SDLM"
+
    private FileMgr fm;
-   private static final int CHECKPOINT = 0;
-   private static final int AUDIT = 1;
-   private static final int MODIFY = 2;
+   private String logfile;
+   private File archiveDir;
+   private int segmentBlocks;
+   private volatile long firstSegment; // the oldest segment of the log
+   private volatile long lastSegment;  // the newest segment written to
+   private long lastSpare;             // the newest spare segment, if above lastSegment
+   private final Object manifestLock = new Object();
+   private Slot[] ring;
+   private int oldest = 0;        // the oldest filled page not yet written
+   private int filled = 0;        // the number of filled pages not yet written
+   private volatile Slot current;
+   private Page tailCopy;         // the writer's copy of the partly filled page
+   private long lastSavedLSN;
+   private long requestedLSN;
+   private RuntimeException failure;
+   private volatile boolean closed = false;
+   private Thread writer, cleaner;
+   private long releasedLSN = 0;
+   private final Object cleanLock = new Object();
+   private FileIdTable fileIds;
+   // The first byte of a record is its type; the audit types
+   // are numbered apart from those of simpledb.tx.recovery.LogRecord.
+   private static final int AUDIT = 16;
+   private static final int MODIFY = 17;
+
+   /**
+    * Creates the manager for the specified log,
+    * with a ring of 4 log pages and 16 MB segments.
+    * @see #LogMgr(FileMgr, String, int, int, File)
+    */
+   public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, 4, 16 * 1024 * 1024, null);
+   }
 
    /**
-    * Creates the manager for the specified log file.
+    * Creates the manager for the specified log,
+    * and starts its writer and cleaner threads.
+    * A new log is created with segments of the specified size;
+    * an existing log keeps the segment size in its manifest,
+    * and is positioned after its last block.
+    * A log written by an earlier version as a single file
+    * having the log's name cannot be read by this version:
+    * the manager refuses to start rather than begin a new
+    * log beside it and lose the records that recovery needs.
     *
-    * @param bufferMgr the buffer manager
-    * @param logfile   the name of the log file
+    * @param fm          the file manager
+    * @param logfile     the name of the log, which prefixes the segment names
+    * @param numpages    the number of log pages in the ring, at least 2
+    * @param segmentSize the size of a segment of a new log, in bytes
+    * @param archiveDir  the directory that receives the segments no longer
+    *                    needed, or null if they are to be recycled
     */
-   public LogMgr(BufferMgr bufferMgr, String logfile) {
-      this.bufferMgr = bufferMgr;
+   public LogMgr(FileMgr fm, String logfile, int numpages, int segmentSize, File archiveDir) {
+      if (numpages < 2)
+         throw new IllegalArgumentException("the log needs at least 2 pages, not " + numpages);
+      this.fm = fm;
       this.logfile = logfile;
-      this.fm = bufferMgr.getFileMgr();
-      int logsize = bufferMgr.length(logfile);
-      BlockId blk = logsize == 0 ? appendNewBlock() : new BlockId(logfile, logsize - 1);
-      currentBuffer = bufferMgr.pin(blk);
-      logpage = currentBuffer.contents();
+      this.archiveDir = archiveDir;
+      fileIds = new FileIdTable(fm, logfile + ".files");
+      ring = new Slot[numpages];
+      for (int i = 0; i < numpages; i++)
+         ring[i] = new Slot(i, new Page(fm.blockSize()));
+      tailCopy = new Page(fm.blockSize());
+      Slot first = ring[0];
+      long lastblk = -1;
+      if (fm.exists(manifestName())) {
+         readManifest();
+         // a segment removed just before a crash may still be in the manifest
+         while (firstSegment < lastSegment && !fm.exists(segmentName(firstSegment)))
+            firstSegment++;
+         lastblk = findLastBlock(first.page);
+      }
+      else if (fm.exists(logfile) && fm.length(logfile) > 0)
+         throw new RuntimeException(logfile + " is a log written by an earlier version of "
+               + "SimpleDB; this version cannot read it and there is no conversion tool: "
+               + "start the database once with the earlier version so that it recovers, "
+               + "stop it with no transaction running, and delete the log");
+      else {
+         segmentBlocks = Math.max(1, segmentSize / fm.blockSize());
+         writeManifest();
+      }
+      lastSpare = lastSegment;
+      while (lastSpare < lastSegment + SPARE_SEGMENTS && fm.exists(segmentName(lastSpare + 1)))
+         lastSpare++;
+      if (lastblk < 0) {
+         first.reset(lastSegment * segmentBlocks, fm.dataSize());
+         first.page.setInt(0, fm.dataSize());
+         writeBlock(first.blknum, first.page);
+      }
+      else
+         first.reset(lastblk, first.page.getInt(0));
+      current = first;
+      lastSavedLSN = requestedLSN = latestLSN();
+      writer = startDaemon(this::writeLoop, "simpledb-logwriter");
+      cleaner = startDaemon(this::cleanLoop, "simpledb-logcleaner");
    }
 
    /**
-    * Appends a log record to the buffer.
+    * Appends a log record to the current log page.
+    * The record's space is reserved with a compare-and-set,
+    * so concurrent appenders do not block each other.
+    * If the record does not fit, the page is handed to the
+    * writer and the next page of the ring becomes current;
+    * the append waits only if every other page of the ring
+    * is still waiting to be written.
     *
     * @param logrec a byte array containing the log record
-    * @return the LSN of the final value
+    * @return the LSN of the record
     */
-   public synchronized int append(byte[] logrec) {
-      int boundary = logpage.getInt(0);
+   public long append(byte[] logrec) {
       int recsize = logrec.length;
       int bytesneeded = recsize + Integer.BYTES;
-      if (boundary - bytesneeded < Integer.BYTES) {
-         bufferMgr.unpin(currentBuffer);
-         BlockId newblk = appendNewBlock();
-         currentBuffer = bufferMgr.pin(newblk);
-         logpage = currentBuffer.contents();
-         boundary = logpage.getInt(0);
+      if (bytesneeded + HEADER_SIZE > fm.dataSize())
+         throw new IllegalArgumentException("log record of " + recsize
+               + " bytes does not fit in a " + fm.blockSize() + " byte block");
+      while (true) {
+         Slot s = current;
+         long r = s.reserved.get();
+         int recpos = (int) r - bytesneeded;
+         if (r < 0 || recpos < HEADER_SIZE) {
+            moveToNextPage(s);
+            continue;
+         }
+         if (s.reserved.compareAndSet(r, recpos)) {
+            long lsn = lsn(s.blknum, recpos); // read before the page can be recycled
+            s.page.setBytes(recpos, logrec);
+            s.complete((int) r, recpos);
+            return lsn;
+         }
       }
-      int recpos = boundary - bytesneeded;
+   }
 
-      logpage.setBytes(recpos, logrec);
-      logpage.setInt(0, recpos);
-      latestLSN += 1;
-      return latestLSN;
+   /**
+    * Return the size of the largest record that fits in a log page.
+    * @return the largest record size, in bytes
+    */
+   public int maxRecordSize() {
+      return fm.dataSize() - HEADER_SIZE - Integer.BYTES;
    }
 
    /**
     * Ensures that the log record corresponding to the specified LSN has been
-    * written to disk.
+    * written to disk, waiting for the writer thread if necessary.
     *
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= lastSavedLSN) {
-         bufferMgr.flush(currentBuffer);
-         lastSavedLSN = latestLSN;
+   public synchronized void flush(long lsn) {
+      lsn = Math.min(lsn, latestLSN());
+      if (lsn <= lastSavedLSN)
+         return;
+      requestedLSN = Math.max(requestedLSN, lsn);
+      notifyAll();
+      while (lastSavedLSN < lsn)
+         waitForWriter();
+   }
+
+   /**
+    * Return the LSN of the most recently appended log record,
+    * or a lower bound on it if no record has been appended
+    * to the current page.
+    * @return the latest LSN
+    */
+   public synchronized long latestLSN() {
+      Slot s = current;
+      return lsn(s.blknum, (int) s.reserved.get());
+   }
+
+   /**
+    * Return a lower bound on the LSN of the next record to be
+    * appended, without taking the log manager's lock: the LSN
+    * of the start of the current page. The bound is at most a
+    * page below the latest LSN, which makes it cheap enough to
+    * take before every logged change.
+    * @return an LSN no later than that of any future record
+    */
+   public long lowerBoundLSN() {
+      return current.blknum * fm.blockSize();
+   }
+
+   /**
+    * Declare that the log records below the specified LSN
+    * are no longer needed, so that the segments holding only
+    * such records may be archived or recycled.
+    * The segments are removed in the background.
+    * @param lsn the LSN of the oldest record still needed
+    */
+   public void releaseBefore(long lsn) {
+      synchronized (cleanLock) {
+         if (lsn > releasedLSN) {
+            releasedLSN = lsn;
+            cleanLock.notifyAll();
+         }
       }
    }
 
    /**
-    * Appends a new block to the log file.
-    *
-    * @return the BlockId of the new block
+    * Write every record appended so far, and stop the writer
+    * and cleaner threads, waiting for them to finish.
+    * The caller must have stopped appending, as a shutdown does;
+    * afterwards a new log manager may be created for the same
+    * log, as a restart does.
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = bufferMgr.append(logfile);
-      bufferMgr.pin(blk);
-      logpage = currentBuffer.contents();
-      logpage.setInt(0, fm.blockSize());
-      bufferMgr.flush(currentBuffer);
-      return blk;
+   public void close() {
+      try {
+         flush(latestLSN());
+      }
+      finally {
+         synchronized (this) {
+            closed = true;
+            notifyAll();
+         }
+         synchronized (cleanLock) {
+            cleanLock.notifyAll();
+         }
+         join(writer);
+         join(cleaner);
+      }
    }
 
-   public void archiveLog(String archiveDir) {
+   private void join(Thread t) {
       try {
-         File currentLogFile = new File(logfile);
-         File archiveFile = new File(archiveDir, currentLogFile.getName());
-         // Ensure the archive directory exists
-         archiveFile.getParentFile().mkdirs();
-         // Move the current log file to the archive directory
-         if (!currentLogFile.renameTo(archiveFile)) {
-            throw new IOException("Failed to move log file to archive.");
+         t.join();
+      }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Return the number of the oldest segment of the log.
+    * @return the oldest segment
+    */
+   public long firstSegment() {
+      return firstSegment;
+   }
+
+   /**
+    * Return the number of the newest segment of the log.
+    * @return the newest segment
+    */
+   public long lastSegment() {
+      return lastSegment;
+   }
+
+   /**
+    * Return the log record having the specified LSN.
+    * The log is not flushed: a record not yet written
+    * is read from the ring of log pages.
+    * @param lsn the LSN of a log record
+    * @return the record
+    */
+   public byte[] read(long lsn) {
+      return reader().read(lsn);
+   }
+
+   /**
+    * Return a reader of log records by their LSNs, which,
+    * like read(), does not flush the log, and which keeps
+    * the block it last read.
+    * @return a reader of the log
+    */
+   public LogReader reader() {
+      return new LogReader(this);
+   }
+
+   /**
+    * Return an iterator over the log records, from the most
+    * recent to the oldest. The log is flushed first, so that
+    * the iterator can read every record from the log file.
+    * @return an iterator over the log records
+    */
+   public LogIterator iterator() {
+      return iterator(latestLSN());
+   }
+
+   /**
+    * Return an iterator over the log records, from the record
+    * having the specified LSN to the oldest.
+    * @param lsn the LSN of the first record to return,
+    * or the value of latestLSN() for the most recent record
+    * @return an iterator over the log records
+    */
+   public LogIterator iterator(long lsn) {
+      flush(lsn);
+      int blocksize = fm.blockSize();
+      long blknum = (lsn - 1) / blocksize;
+      int pos = blocksize - (int) (lsn - blknum * blocksize);
+      return new LogIterator(this, blknum, pos);
+   }
+
+   /**
+    * Return an iterator over the log records, from the record
+    * having the specified LSN to the most recent record.
+    * The log is flushed first, and records appended after
+    * the iterator is created are not returned.
+    * @param lsn the LSN of the first record to return
+    * @return an iterator over the log records, in log order
+    */
+   public ForwardLogIterator forwardIterator(long lsn) {
+      long end = latestLSN();
+      flush(end);
+      return new ForwardLogIterator(this, lsn, end);
+   }
+
+   /**
+    * Return the id that stands for the specified file in log
+    * records, assigning one if the file has none yet.
+    * Ids are kept in a file beside the log and forced to disk
+    * when assigned, so that they outlive the log segments.
+    * @param filename the name of a file
+    * @return the id of the file
+    */
+   public int fileId(String filename) {
+      return fileIds.id(filename);
+   }
+
+   /**
+    * Return the name of the file having the specified id.
+    * @param id an id returned by fileId
+    * @return the name of the file
+    */
+   public String fileName(int id) {
+      return fileIds.name(id);
+   }
+
+   FileMgr fileMgr() {
+      return fm;
+   }
+
+   /**
+    * Return the block of the segment file that holds the specified log block.
+    * @param blknum the number of a log block
+    * @return the block of its segment
+    */
+   BlockId blockId(long blknum) {
+      return new BlockId(segmentName(blknum / segmentBlocks), (int) (blknum % segmentBlocks));
+   }
+
+   /**
+    * Copy the specified log block into the page, from the ring
+    * if the block has not been written yet, after waiting for
+    * the records through the specified LSN to be copied there,
+    * and from its segment otherwise. A block leaves the ring
+    * only once it has been written, so a block not found there
+    * can be read from its segment without the lock.
+    * @param blknum the number of a log block
+    * @param p the page that receives the block
+    * @param lsn the LSN of the record the caller needs
+    * @return the latest LSN whose record the copy is sure to hold
+    */
+   long readBlock(long blknum, Page p, long lsn) {
+      synchronized (this) {
+         for (int i = 0; i <= filled; i++) {
+            Slot s = ring[(oldest + i) % ring.length];
+            if (s.blknum == blknum) {
+               int c = s.awaitCompleted(lsn);
+               p.copyFrom(s.page);
+               return lsn(blknum, c);
+            }
+         }
+      }
+      fm.read(blockId(blknum), p);
+      return (blknum + 1) * fm.blockSize();
+   }
+
+   /**
+    * Return the number of the first block of the log.
+    * @return the first log block
+    */
+   long firstBlock() {
+      return firstSegment * segmentBlocks;
+   }
+
+   private long lsn(long blknum, int pos) {
+      return blknum * fm.blockSize() + (fm.blockSize() - pos);
+   }
+
+   private String segmentName(long segment) {
+      return String.format("%s.%010d", logfile, segment);
+   }
+
+   private String manifestName() {
+      return logfile + ".manifest";
+   }
+
+   private Thread startDaemon(Runnable body, String name) {
+      Thread t = new Thread(body, name);
+      t.setDaemon(true);
+      t.start();
+      return t;
+   }
+
+   /**
+    * Seal the specified page, if it is still the current one,
+    * hand it to the writer, and make the next page of the ring
+    * current, waiting for the writer if the ring is full.
+    * @param s the page that was found full or sealed
+    */
+   private synchronized void moveToNextPage(Slot s) {
+      while (current == s) {
+         if (filled < ring.length - 1) {
+            s.reserved.getAndUpdate(x -> x | SEALED);
+            filled++;
+            Slot next = ring[(s.index + 1) % ring.length];
+            next.reset(s.blknum + 1, fm.dataSize());
+            current = next;
+            notifyAll();
+         }
+         else
+            waitForWriter();
+      }
+   }
+
+   private void waitForWriter() {
+      if (failure != null)
+         throw failure;
+      try {
+         wait();
+      } catch (InterruptedException e) {
+         throw new RuntimeException("interrupted while waiting for the log writer");
+      }
+      if (failure != null)
+         throw failure;
+   }
+
+   /**
+    * The body of the writer thread.
+    * Each round writes the filled pages in order, once all of
+    * their records have been copied, and the completed prefix
+    * of the current page if a flush is waiting for it.
+    * The log is forced only when a flush is waiting,
+    * and a single force covers every record written so far.
+    */
+   private void writeLoop() {
+      while (true) {
+         int start, count;
+         long lsn, tailblk = -1;
+         boolean force;
+         synchronized (this) {
+            while (filled == 0 && requestedLSN <= lastSavedLSN) {
+               if (closed)
+                  return;
+               try {
+                  wait();
+               } catch (InterruptedException e) {
+                  // the writer runs until the log is closed
+               }
+            }
+            start = oldest;
+            count = filled;
+            lsn = lastSavedLSN;
+            if (count > 0) {
+               Slot last = ring[(start + count - 1) % ring.length];
+               lsn = lsn(last.blknum, (int) last.reserved.get());
+            }
+            force = requestedLSN > lastSavedLSN;
+            if (force && requestedLSN > lsn) {
+               Slot s = current;
+               int c = s.awaitCompleted(requestedLSN);
+               tailCopy.copyFrom(s.page);
+               tailCopy.setInt(0, c);
+               tailblk = s.blknum;
+               lsn = lsn(s.blknum, c);
+            }
+         }
+         try {
+            for (int i = 0; i < count; i++) {
+               Slot s = ring[(start + i) % ring.length];
+               s.page.setInt(0, s.awaitCompleted(Long.MAX_VALUE));
+               writeBlock(s.blknum, s.page);
+            }
+            if (tailblk >= 0)
+               writeBlock(tailblk, tailCopy);
+            if (force)
+               fm.force();
+         } catch (RuntimeException e) {
+            synchronized (this) {
+               failure = e;
+               notifyAll();
+            }
+            return;
+         }
+         synchronized (this) {
+            oldest = (start + count) % ring.length;
+            filled -= count;
+            if (force)
+               lastSavedLSN = Math.max(lastSavedLSN, lsn);
+            notifyAll();
          }
-         // Start a new log file
-         BlockId newblk = appendNewBlock();
-         currentBuffer = bufferMgr.pin(newblk);
-         logpage = currentBuffer.contents();
-      } catch (IOException e) {
-         throw new RuntimeException("Error archiving log file: " + e.getMessage(), e);
       }
    }
 
-   public Iterator<byte[]> iterator() {
-      return new Iterator<byte[]>() {
-         private BlockId currentBlk = new BlockId(logfile, 0);
-         private int currentPos = Integer.BYTES;
+   /**
+    * Write a log page to its block. Before the first write to
+    * a new segment, the manifest is updated to include it,
+    * so that a restart looks for the end of the log there.
+    */
+   private void writeBlock(long blknum, Page p) {
+      long segment = blknum / segmentBlocks;
+      if (segment > lastSegment) {
+         synchronized (manifestLock) {
+            lastSegment = segment;
+            writeManifest();
+         }
+         // the previous segment may now be removable
+         synchronized (cleanLock) {
+            cleanLock.notifyAll();
+         }
+      }
+      fm.write(blockId(blknum), p);
+   }
 
-         @Override
-         public boolean hasNext() {
-            return !isEndOfLog();
+   /**
+    * Find the last block of the log, which is the last block of
+    * the newest segment that carries its own block number, and
+    * read it into the page. Only the newest segment is searched,
+    * so the search takes the same time however long the log is.
+    * @param p the page that receives the last block
+    * @return the number of the last block, or -1 if the log is empty
+    */
+   private long findLastBlock(Page p) {
+      long base = lastSegment * segmentBlocks;
+      String segname = segmentName(lastSegment);
+      int length = fm.exists(segname) ? Math.min(fm.length(segname), segmentBlocks) : 0;
+      long last = -1;
+      for (int i = 0; i < length; i++) {
+         try {
+            fm.read(new BlockId(segname, i), p);
+         } catch (RuntimeException e) {
+            break; // a torn write ends the log
          }
+         if (p.getLong(Integer.BYTES) != base + i)
+            break;
+         last = base + i;
+      }
+      if (last < 0 && lastSegment > firstSegment)
+         last = base - 1; // the newest segment was started but never written
+      if (last >= 0)
+         fm.read(blockId(last), p);
+      return last;
+   }
+
+   private void readManifest() {
+      Page p = new Page(fm.blockSize());
+      fm.read(new BlockId(manifestName(), 0), p);
+      if (p.getInt(0) != MANIFEST_MAGIC)
+         throw new RuntimeException(manifestName() + " is not a log manifest");
+      segmentBlocks = p.getInt(Integer.BYTES);
+      firstSegment = p.getLong(2 * Integer.BYTES);
+      lastSegment = p.getLong(2 * Integer.BYTES + Long.BYTES);
+   }
+
+   /**
+    * Write the manifest and force it to disk.
+    * The caller must hold the manifest lock, except in the constructor.
+    */
+   private void writeManifest() {
+      Page p = new Page(fm.blockSize());
+      p.setInt(0, MANIFEST_MAGIC);
+      p.setInt(Integer.BYTES, segmentBlocks);
+      p.setLong(2 * Integer.BYTES, firstSegment);
+      p.setLong(2 * Integer.BYTES + Long.BYTES, lastSegment);
+      fm.write(new BlockId(manifestName(), 0), p);
+      fm.force();
+   }
 
-         @Override
-         public byte[] next() {
-            if (!hasNext()) {
-               throw new NoSuchElementException();
+   /**
+    * The body of the cleaner thread, which removes each segment
+    * that lies entirely below the released LSN, oldest first.
+    * The segment being written is never removed.
+    * If a segment cannot be removed, the cleaner reports the
+    * first such failure, and tries again after the next
+    * release or the next switch to a new segment.
+    */
+   private void cleanLoop() {
+      long failedAt = -1, failedLast = -1;
+      int failures = 0;
+      while (true) {
+         synchronized (cleanLock) {
+            while ((releasedLSN <= failedAt && lastSegment <= failedLast)
+                  || !isReleased(firstSegment)) {
+               if (closed)
+                  return;
+               try {
+                  cleanLock.wait();
+               } catch (InterruptedException e) {
+                  // the cleaner runs until the log is closed
+               }
             }
-            // Read the next log record
-            Buffer buf = bufferMgr.pin(currentBlk);
-            Page p = buf.contents();
-            int recordSize = p.getInt(currentPos);
-            byte[] record = new byte[recordSize];
-            p.getBytes(currentPos + Integer.BYTES);
-            // Move to the next record
-            currentPos += Integer.BYTES + recordSize;
-            if (currentPos >= fm.blockSize()) {
-               // Move to the next block if the end of the current block is reached
-               bufferMgr.unpin(buf);
-               currentBlk = new BlockId(logfile, currentBlk.number() + 1);
-               currentPos = Integer.BYTES;
-            } else {
-               bufferMgr.unpin(buf);
+         }
+         try {
+            removeSegment(firstSegment);
+         } catch (RuntimeException e) {
+            if (failures++ == 0)
+               System.err.println("log cleaner: " + e);
+            synchronized (cleanLock) {
+               failedAt = releasedLSN;
+               failedLast = lastSegment;
             }
-            return record;
          }
+      }
+   }
+
+   private boolean isReleased(long segment) {
+      long endLSN = (segment + 1) * segmentBlocks * fm.blockSize();
+      return segment < lastSegment && endLSN <= releasedLSN;
+   }
 
-         private boolean isEndOfLog() {
-            // Check if the end of the log file is reached
-            // This could be based on the file size or a special marker in the log
-            if (currentBlk.number() >= bufferMgr.length(logfile)) {
-               return true;
+   /**
+    * Remove the oldest segment from the log, by archiving it,
+    * keeping it as a spare for reuse, or deleting it, and then
+    * record its removal in the manifest.
+    * Readers stop at the new first segment before the file is
+    * touched; if the file cannot be removed, the segment stays
+    * in the log. A crash before the manifest is rewritten leaves
+    * a manifest naming a missing segment, which the constructor
+    * skips.
+    */
+   private void removeSegment(long segment) {
+      String segname = segmentName(segment);
+      synchronized (manifestLock) {
+         firstSegment = segment + 1;
+         try {
+            if (archiveDir != null)
+               fm.moveFile(segname, new File(archiveDir, segname));
+            else {
+               long spare = Math.max(lastSpare, lastSegment) + 1;
+               if (spare <= lastSegment + SPARE_SEGMENTS) {
+                  fm.renameFile(segname, segmentName(spare));
+                  lastSpare = spare;
+               }
+               else
+                  fm.deleteFile(segname);
             }
-            Buffer buf = bufferMgr.pin(currentBlk);
-            Page p = buf.contents();
-            int boundary = p.getInt(0);
-            bufferMgr.unpin(buf);
-            return currentPos >= boundary;
+         } catch (RuntimeException e) {
+            firstSegment = segment;
+            throw e;
          }
-      };
+         writeManifest();
+      }
    }
 
-   public synchronized int writeCheckpointRecord(List<Integer> activeTxIds) {
-      ByteBuffer buffer = ByteBuffer.allocate(1024); // Example buffer size
-      buffer.putInt(CHECKPOINT);
-      buffer.putLong(new Date().getTime()); // Current timestamp
-      for (int txId : activeTxIds) {
-         buffer.putInt(txId);
+   /**
+    * A page of the ring, with its reservation word and its
+    * completion watermark. The low half of the reservation
+    * word is the boundary of the reserved records, and its
+    * sign bit marks a sealed page, which takes no more records.
+    * The watermark is the boundary of the records that have
+    * all been copied.
+    * The fields other than the two words change only when the
+    * page is reset, which happens before it becomes current;
+    * the block number is volatile so that lowerBoundLSN can
+    * read it without the log manager's lock.
+    */
+   private class Slot {
+      final int index;
+      final Page page;
+      volatile long blknum;
+      final AtomicLong reserved = new AtomicLong();
+      volatile int completed;
+
+      Slot(int index, Page page) {
+         this.index = index;
+         this.page = page;
+      }
+
+      void reset(long blknum, int boundary) {
+         this.blknum = blknum;
+         page.setLong(Integer.BYTES, blknum);
+         completed = boundary;
+         reserved.set(boundary);
+      }
+
+      /**
+       * Advance the watermark past a copied record, once every
+       * record reserved before it has been copied.
+       * @param prev the boundary before the record
+       * @param mine the boundary after it
+       */
+      void complete(int prev, int mine) {
+         int spins = 0;
+         while (completed != prev) {
+            if (++spins % 64 == 0)
+               Thread.yield();
+            else
+               Thread.onSpinWait();
+         }
+         completed = mine;
+      }
+
+      /**
+       * Wait until the watermark covers the specified LSN,
+       * or, if the page is sealed, all of its records.
+       * @param lsn the LSN to be covered
+       * @return the watermark
+       */
+      int awaitCompleted(long lsn) {
+         int spins = 0;
+         while (true) {
+            int r = (int) reserved.get();
+            int c = completed;
+            if (c == r || lsn(blknum, c) >= lsn)
+               return c;
+            if (++spins % 64 == 0)
+               Thread.yield();
+            else
+               Thread.onSpinWait();
+         }
       }
-      byte[] record = buffer.array();
-      return append(record);
    }
 
-   public synchronized int writeAuditRecord(String ipAddress, int txId, BlockId blk, String operation) {
-      ByteBuffer buffer = ByteBuffer.allocate(1024); // Adjust size as needed
-      buffer.putInt(AUDIT);
-      buffer.putLong(new Date().getTime());
-      buffer.put(ipAddress.getBytes());
-      buffer.putInt(txId);
-      buffer.put(blk.toString().getBytes());
-      buffer.put(operation.getBytes());
-      byte[] record = buffer.array();
-      return append(record);
+   public long writeAuditRecord(String ipAddress, int txId, BlockId blk, String operation) {
+      LogEncoder rec = new LogEncoder(32 + ipAddress.length() + operation.length());
+      rec.putByte(AUDIT).putVarint(System.currentTimeMillis());
+      rec.putString(ipAddress).putVarint(txId);
+      rec.putVarint(fileId(blk.fileName())).putVarint(blk.number());
+      rec.putString(operation);
+      return append(rec.toByteArray());
    }
 
-   public synchronized int writeModifyRecord(String ipAddress, int txId, BlockId blk, String oldValue,
+   public long writeModifyRecord(String ipAddress, int txId, BlockId blk, String oldValue,
          String newValue) {
-      ByteBuffer buffer = ByteBuffer.allocate(1024); // Example buffer size
-      buffer.putInt(MODIFY);
-      buffer.putLong(new Date().getTime()); // Current timestamp
-      putString(buffer, ipAddress);
-      buffer.putInt(txId);
-      putString(buffer, blk.toString());
-      putString(buffer, oldValue);
-      putString(buffer, newValue);
-      byte[] record = buffer.array();
-      return append(record);
-   }
-
-   private void putString(ByteBuffer buffer, String str) {
-      byte[] strBytes = str.getBytes();
-      buffer.putInt(strBytes.length);
-      buffer.put(strBytes);
+      LogEncoder rec = new LogEncoder(32 + ipAddress.length() + oldValue.length() + newValue.length());
+      rec.putByte(MODIFY).putVarint(System.currentTimeMillis());
+      rec.putString(ipAddress).putVarint(txId);
+      rec.putVarint(fileId(blk.fileName())).putVarint(blk.number());
+      rec.putString(oldValue).putString(newValue);
+      return append(rec.toByteArray());
    }
 }
@@ -0,0 +1,40 @@
+package simpledb.log;
+
+import simpledb.file.*;
+
+/**
+ * A class that reads log records by their LSNs, for a caller
+ * that follows a chain of records back through the log.
+ * The log is not flushed: a record not yet written is read
+ * from the log manager's ring of pages. The block most
+ * recently read is kept, so that a chain whose records
+ * share a block reads the block once.
+ */
+public class LogReader {
+   private LogMgr lm;
+   private FileMgr fm;
+   private Page p;
+   private long blknum = -1;
+   private long validLSN = -1; // the latest LSN that the page holds
+
+   LogReader(LogMgr lm) {
+      this.lm = lm;
+      this.fm = lm.fileMgr();
+      p = new Page(fm.blockSize());
+   }
+
+   /**
+    * Return the log record having the specified LSN.
+    * @param lsn the LSN of a log record
+    * @return the record
+    */
+   public byte[] read(long lsn) {
+      int blocksize = fm.blockSize();
+      long blk = (lsn - 1) / blocksize;
+      if (blk != blknum || lsn > validLSN) {
+         validLSN = lm.readBlock(blk, p, lsn);
+         blknum = blk;
+      }
+      return p.getBytes(blocksize - (int) (lsn - blk * blocksize));
+   }
+}
@@ -0,0 +1,93 @@
+package simpledb.log;
+
+import java.io.File;
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Writes a log of small segments, releases its older records,
+ * and checks that the released segments are recycled, that the
+ * records still needed can be read, and that a restarted log
+ * manager carries on after the last record.
+ */
+public class LogSegmentTest {
+   private static FileMgr fm;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("logsegmenttest", 400, 8);
+      fm = db.fileMgr();
+      // segments of 4 blocks, recycled rather than archived
+      LogMgr lm = new LogMgr(fm, "segtest.log", 2, 1600, null);
+
+      List<Long> lsns = createRecords(lm, 0, 300);
+      lm.flush(lsns.get(299));
+      System.out.println("segments " + lm.firstSegment() + " to " + lm.lastSegment());
+      printRecords(lm, "all 300 records:", 299);
+
+      lm.releaseBefore(lsns.get(200));
+      // the cleaner works in the background, removing
+      // every segment that ends at or below the released LSN
+      awaitFirstSegment(lm, lsns.get(200) / 1600);
+      System.out.println("after releasing the records below 200: segments "
+            + lm.firstSegment() + " to " + lm.lastSegment());
+      printRecords(lm, "the records still in the log (the oldest should be at most 200):", 299);
+      printFiles();
+
+      // the recycled segments hold blocks from their earlier life,
+      // which must not be mistaken for part of the log
+      lsns.addAll(createRecords(lm, 300, 400));
+      lm.close();
+      LogMgr restarted = new LogMgr(fm, "segtest.log", 2, 1600, null);
+      long lsn = restarted.append(intRecord(400));
+      System.out.println("restarted: new LSN follows the old ones: " + (lsn > lsns.get(399)));
+      System.out.println("record 350 reads as " + new Page(restarted.read(lsns.get(350))).getInt(0));
+      restarted.close();
+   }
+
+   // Wait up to 10 seconds for the cleaner to remove the segments below the
+   // specified one: the first segment moves up before the file is removed.
+   private static void awaitFirstSegment(LogMgr lm, long segment) throws InterruptedException {
+      File last = new File("logsegmenttest", String.format("segtest.log.%010d", segment - 1));
+      long deadline = System.currentTimeMillis() + 10000;
+      while ((lm.firstSegment() < segment || last.exists())
+            && System.currentTimeMillis() < deadline)
+         Thread.sleep(1);
+   }
+
+   private static List<Long> createRecords(LogMgr lm, int start, int end) {
+      List<Long> lsns = new ArrayList<>();
+      for (int i = start; i < end; i++)
+         lsns.add(lm.append(intRecord(i)));
+      return lsns;
+   }
+
+   // Print the records from the most recent, which holds the specified value.
+   private static void printRecords(LogMgr lm, String msg, int top) {
+      System.out.println(msg);
+      Iterator<byte[]> iter = lm.iterator();
+      int n = 0, oldest = -1, wrong = 0;
+      while (iter.hasNext()) {
+         oldest = new Page(iter.next()).getInt(0);
+         if (oldest != top - n)
+            wrong++;
+         n++;
+      }
+      System.out.println(n + " records, the oldest " + oldest + ", " + wrong + " out of order");
+   }
+
+   private static void printFiles() {
+      File dir = new File("logsegmenttest");
+      SortedSet<String> names = new TreeSet<>();
+      for (String name : dir.list())
+         if (name.startsWith("segtest.log"))
+            names.add(name);
+      System.out.println("files: " + names);
+   }
+
+   private static byte[] intRecord(int n) {
+      byte[] b = new byte[40];
+      new Page(b).setInt(0, n);
+      return b;
+   }
+}
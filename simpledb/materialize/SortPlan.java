@@ -41,7 +41,7 @@ public class SortPlan implements Plan {
       src.close();
       while (runs.size() > 2)
          runs = doAMergeIteration(runs);
-      return new SortScan(runs, comp);
+      return new SortScan(runs, comp, runReadBatch());
    }
    
    /**
@@ -119,8 +119,9 @@ public class SortPlan implements Plan {
    }
    
    private TempTable mergeTwoRuns(TempTable p1, TempTable p2) {
-      Scan src1 = p1.open();
-      Scan src2 = p2.open();
+      int readbatch = runReadBatch();
+      Scan src1 = p1.openSequential(readbatch);
+      Scan src2 = p2.openSequential(readbatch);
       TempTable result = new TempTable(tx, sch);
       UpdateScan dest = result.open();
       
@@ -144,6 +145,15 @@ public class SortPlan implements Plan {
       return result;
    }
    
+   /**
+    * Return how many blocks of each of the two runs being merged
+    * to load at a time: the free buffers, less one for the output,
+    * split evenly between the runs.
+    */
+   private int runReadBatch() {
+      return Math.max(1, (tx.availableBuffs() - 1) / 2);
+   }
+
    private boolean copy(Scan src, UpdateScan dest) {
       dest.insert();
       for (String fldname : sch.fields())
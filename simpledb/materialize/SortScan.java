@@ -27,11 +27,22 @@ public class SortScan implements Scan {
     * @param comp the record comparator
     */
    public SortScan(List<TempTable> runs, RecordComparator comp) {
+      this(runs, comp, 1);
+   }
+
+   /**
+    * Create a sort scan whose runs are read the
+    * specified number of blocks at a time.
+    * @param runs the list of runs
+    * @param comp the record comparator
+    * @param readbatch the number of blocks of a run to load at a time
+    */
+   public SortScan(List<TempTable> runs, RecordComparator comp, int readbatch) {
       this.comp = comp;
-      s1 = (UpdateScan) runs.get(0).open();
+      s1 = runs.get(0).openSequential(readbatch);
       hasmore1 = s1.next();
       if (runs.size() > 1) {
-         s2 = (UpdateScan) runs.get(1).open();
+         s2 = runs.get(1).openSequential(readbatch);
          hasmore2 = s2.next();
       }
    }
@@ -36,6 +36,18 @@ public class TempTable {
       return new TableScan(tx, tblname, layout);
    }
    
+   /**
+    * Open a table scan for reading the temporary table
+    * from start to end, loading the specified number of
+    * blocks at a time.
+    * @param readbatch the number of blocks to load at a time
+    */
+   public UpdateScan openSequential(int readbatch) {
+      TableScan ts = new TableScan(tx, tblname, layout);
+      ts.setReadBatch(readbatch);
+      return ts;
+   }
+
    public String tableName() {
       return tblname;
    }
@@ -29,8 +29,7 @@ class IndexMgr {
       TableScan fcat = new TableScan(tx, "fldcat", tblmgr.getLayout("fldcat", tx));
       while (fcat.next()) {
          if (fcat.getString("tblname").equals(tblname) && fcat.getString("fldname").equals(fldname)) {
-            fcat.setString("indexname", idxname);
-            fcat.setString("indextype", indextype);
+            fcat.setValues(Map.of("indexname", idxname, "indextype", indextype));
             break;
          }
       }
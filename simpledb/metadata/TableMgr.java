@@ -38,21 +38,23 @@ class TableMgr {
          Layout layout = new Layout(sch);
          // Insert one record into tblcat
          TableScan tcat = new TableScan(tx, "tblcat", tcatLayout);
-         tcat.insert();
-         tcat.setInt("tblId", generateUniqueId()); // Generate a unique ID for the table
-         tcat.setString("tblname", tblname);
-         tcat.setInt("slotsize", layout.slotSize());
+         Map<String, Object> trec = new HashMap<>();
+         trec.put("tblId", generateUniqueId()); // Generate a unique ID for the table
+         trec.put("tblname", tblname);
+         trec.put("slotsize", layout.slotSize());
+         tcat.insert(trec);
          tcat.close();
          // Insert a record into fldcat for each field
          TableScan fcat = new TableScan(tx, "fldcat", fcatLayout);
          int tableId = generateUniqueId(); // Generate a unique ID for the foreign key reference
          for (String fldname : sch.fields()) {
-            fcat.insert();
-            fcat.setInt("tableId", tableId); // Set the foreign key
-            fcat.setString("fldname", fldname);
-            fcat.setInt("type", sch.type(fldname));
-            fcat.setInt("length", sch.length(fldname));
-            fcat.setInt("offset", layout.offset(fldname));
+            Map<String, Object> frec = new HashMap<>();
+            frec.put("tableId", tableId); // Set the foreign key
+            frec.put("fldname", fldname);
+            frec.put("type", sch.type(fldname));
+            frec.put("length", sch.length(fldname));
+            frec.put("offset", layout.offset(fldname));
+            fcat.insert(frec);
          }
          fcat.close();
          tx.commit(); // Commit the transaction
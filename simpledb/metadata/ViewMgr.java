@@ -1,5 +1,6 @@
 package simpledb.metadata;
 
+import java.util.Map;
 import simpledb.record.*;
 import simpledb.tx.Transaction;
 
@@ -22,9 +23,7 @@ class ViewMgr {
    public void createView(String vname, String vdef, Transaction tx) {
       Layout layout = tblMgr.getLayout("viewcat", tx);
       TableScan ts = new TableScan(tx, "viewcat", layout);
-      ts.insert();
-      ts.setString("viewname", vname);
-      ts.setString("viewdef", vdef);
+      ts.insert(Map.of("viewname", vname, "viewdef", vdef));
       ts.close();
    }
 
@@ -22,6 +22,7 @@ public class ChunkScan implements Scan {
       this.layout = layout;
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
+      tx.loadRange(filename, startbnum, endbnum);
       for (int i=startbnum; i<=endbnum; i++) {
          BlockId blk = new BlockId(filename, i);
          buffs.add(new RecordPage(tx, blk, layout));
@@ -1,8 +1,7 @@
 package simpledb.plan;
 
 import java.io.*;
-import java.util.Base64;
-import java.util.Iterator;
+import java.util.*;
 import simpledb.tx.Transaction;
 import simpledb.parse.*;
 import simpledb.query.*;
@@ -41,9 +40,15 @@ public class BasicUpdatePlanner implements UpdatePlanner {
          throw new RuntimeException("Type mismatch for field " + targetField);
       }
 
+      // a null is not a field value of a logged change
+      Map<String, Object> change = newVal.isNull() ? null
+            : Map.of(targetField, newVal.asJavaVal());
       int count = 0;
       while (us.next()) {
-         us.setVal(targetField, newVal);
+         if (change == null)
+            us.setVal(targetField, newVal);
+         else
+            us.setValues(change);
          count++;
       }
       us.close();
@@ -61,16 +66,25 @@ public class BasicUpdatePlanner implements UpdatePlanner {
 
       Iterator<Constant> iter = data.vals().iterator();
       Schema sch = p.schema();
-      us.insert();
+      Map<String, Object> vals = new HashMap<>();
+      List<String> nulls = new ArrayList<>();
       for (String fldname : data.fields()) {
          Constant val = iter.next();
+         if (val.isNull()) {
+            nulls.add(fldname);
+            continue;
+         }
          if (sch.type(fldname) == VARCHAR) {
             if (val.asJavaVal().toString().length() > sch.length(fldname)) {
                throw new RuntimeException("String constant too large for field " + fldname);
             }
          }
-         us.setVal(fldname, val);
+         vals.put(fldname, val.asJavaVal());
       }
+      // the record and its values are logged as one change
+      us.insert(vals);
+      for (String fldname : nulls)
+         us.setVal(fldname, new Constant(null));
       us.close();
       return 1;
    }
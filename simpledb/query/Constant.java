@@ -33,6 +33,15 @@ public class Constant implements Comparable<Constant> {
       return (byte[]) val;
    }
 
+   /**
+    * Return the value as the Java object it wraps,
+    * an Integer or a String for the values of a table.
+    * @return the value, or null for the null constant
+    */
+   public Object asJavaVal() {
+      return val;
+   }
+
    public Date asDate() {
       if (isNull) throw new IllegalStateException("Cannot convert null to Date");
       return (Date) val;
@@ -1,5 +1,6 @@
 package simpledb.query;
 
+import java.util.Map;
 import simpledb.record.*;
 
 public class SelectScan implements UpdateScan {
@@ -81,6 +82,16 @@ public class SelectScan implements UpdateScan {
 		us.insert();
 	}
 
+	public void insert(Map<String, Object> vals) {
+		UpdateScan us = (UpdateScan) s;
+		us.insert(vals);
+	}
+
+	public void setValues(Map<String, Object> vals) {
+		UpdateScan us = (UpdateScan) s;
+		us.setValues(vals);
+	}
+
 	public RID getRid() {
 		UpdateScan us = (UpdateScan) s;
 		return us.getRid();
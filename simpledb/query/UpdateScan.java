@@ -1,5 +1,6 @@
 package simpledb.query;
 
+import java.util.Map;
 import simpledb.record.RID;
 
 public interface UpdateScan extends Scan {
@@ -11,6 +12,28 @@ public interface UpdateScan extends Scan {
 
    public void insert();
 
+   /**
+    * Insert a record having the specified values, and make it current.
+    * A scan over a table logs the whole record at once; this default
+    * inserts an empty record and sets its fields one at a time.
+    * @param vals the value of each field, an Integer or a String
+    */
+   default void insert(Map<String, Object> vals) {
+      insert();
+      setValues(vals);
+   }
+
+   /**
+    * Set several fields of the current record.
+    * A scan over a table logs them together; this default
+    * sets them one at a time.
+    * @param vals the new value of each field, an Integer or a String
+    */
+   default void setValues(Map<String, Object> vals) {
+      for (Map.Entry<String, Object> e : vals.entrySet())
+         setVal(e.getKey(), new Constant(e.getValue()));
+   }
+
    public void delete();
 
    public RID  getRid();
@@ -39,6 +39,19 @@ public class Layout {
       return slotsize;
    }
 
+   /**
+    * Check that a page of the specified size can hold
+    * the specified number of slots of this layout.
+    * @param pagesize the usable bytes of the page
+    * @param minslots the number of slots the page must hold
+    * @throws IllegalArgumentException if the slots do not fit
+    */
+   public void checkFits(int pagesize, int minslots) {
+      if (minslots * slotsize > pagesize)
+         throw new IllegalArgumentException("a record of " + slotsize + " bytes is too large for a "
+               + pagesize + " byte page; at least " + minslots + " must fit");
+   }
+
    private int lengthInBytes(String fldname) {
       int fldtype = schema.type(fldname);
       if (fldtype == INTEGER)
@@ -1,7 +1,9 @@
 package simpledb.record;
 
 import static java.sql.Types.INTEGER;
+import java.util.Map;
 import simpledb.file.*;
+import simpledb.tx.SlotUpdate;
 import simpledb.tx.Transaction;
 
 public class RecordPage {
@@ -16,6 +18,7 @@ public class RecordPage {
       this.blk = blk;
       this.layout = layout;
       this.currentslot = -1;
+      layout.checkFits(tx.blockSize(), 1);
    }
 
    /**
@@ -94,6 +97,21 @@ public class RecordPage {
       tx.unpin(blk); // Unpin the block at the end
    }
 
+   /**
+    * Store the specified values in the fields of the
+    * specified slot, as a single change that is logged
+    * by a single log record.
+    * @param vals the new value of each field, an Integer
+    * or a String according to the field's type
+    */
+   public void setValues(int slot, Map<String, Object> vals) {
+      tx.pin(blk);
+      SlotUpdate update = new SlotUpdate(blk, offset(slot));
+      addValues(update, vals);
+      tx.setFields(update, true);
+      tx.unpin(blk);
+   }
+
    public void delete(int slot) {
       tx.pin(blk);  // Pin the block at the beginning
       setFlag(slot, EMPTY);
@@ -134,6 +152,26 @@ public class RecordPage {
       return newslot;
    }
   
+   /**
+    * Fill the next empty slot after the specified slot with
+    * the specified values. The slot's flag and its fields
+    * are set by a single change, logged by a single log record.
+    * @param vals the value of each field, an Integer
+    * or a String according to the field's type
+    * @return the filled slot, or -1 if there is none
+    */
+   public int insertAfter(int slot, Map<String, Object> vals) {
+      tx.pin(blk);
+      int newslot = searchAfter(slot, EMPTY);
+      if (newslot >= 0) {
+         SlotUpdate update = new SlotUpdate(blk, offset(newslot)).setInt(0, USED);
+         addValues(update, vals);
+         tx.setFields(update, true);
+      }
+      tx.unpin(blk);
+      return newslot;
+   }
+
    public BlockId block() {
       return blk;
    }
@@ -143,6 +181,22 @@ public class RecordPage {
       tx.setInt(blk, offset(slot), flag, true); 
    }
 
+   private void addValues(SlotUpdate update, Map<String, Object> vals) {
+      Schema sch = layout.schema();
+      for (Map.Entry<String, Object> e : vals.entrySet()) {
+         String fldname = e.getKey();
+         int fldpos = layout.offset(fldname);
+         if (sch.type(fldname) == INTEGER)
+            update.setInt(fldpos, (Integer) e.getValue());
+         else {
+            String val = (String) e.getValue();
+            if (val.length() > sch.length(fldname))
+               throw new IllegalArgumentException("String length exceeds defined schema length for field " + fldname);
+            update.setString(fldpos, val);
+         }
+      }
+   }
+
    private int searchAfter(int slot, int flag) {
       slot++;
       while (isValidSlot(slot)) {
@@ -1,7 +1,9 @@
 package simpledb.record;
 
 import static java.sql.Types.INTEGER;
+import java.util.Map;
 import simpledb.file.BlockId;
+import simpledb.buffer.ReadAhead;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
 
@@ -11,11 +13,15 @@ public class TableScan implements UpdateScan {
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private ReadAhead readahead;
+   private int readbatch = 1;
+   private int batchstart = 0, batchend = 0; // blocks [batchstart, batchend) are loaded
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
       this.tx = tx;
       this.layout = layout;
       filename = tblname + ".tbl";
+      readahead = tx.readAhead(filename);
       if (tx.size(filename) == 0)
          moveToNewBlock();
       else 
@@ -107,6 +113,34 @@ public class TableScan implements UpdateScan {
       }
    }
 
+   /**
+    * Insert a record having the specified values, and make it
+    * current. The whole record is logged by one log record,
+    * instead of one for its flag and one for each field.
+    * @param vals the value of each field, an Integer
+    * or a String according to the field's type
+    */
+   public void insert(Map<String, Object> vals) {
+      currentslot = rp.insertAfter(currentslot, vals);
+      while (currentslot < 0) {
+         if (atLastBlock())
+            moveToNewBlock();
+         else
+            moveToBlock(rp.block().number()+1);
+         currentslot = rp.insertAfter(currentslot, vals);
+      }
+   }
+
+   /**
+    * Set several fields of the current record,
+    * logged by a single log record.
+    * @param vals the new value of each field, an Integer
+    * or a String according to the field's type
+    */
+   public void setValues(Map<String, Object> vals) {
+      rp.setValues(currentslot, vals);
+   }
+
    public void delete() {
       rp.delete(currentslot);
    }
@@ -126,6 +160,12 @@ public class TableScan implements UpdateScan {
 
    private void moveToBlock(int blknum) {
       close();
+      readahead.access(blknum);
+      if (readbatch > 1 && (blknum < batchstart || blknum >= batchend)) {
+         batchstart = blknum;
+         batchend = blknum + readbatch;
+         tx.loadRange(filename, batchstart, batchend - 1);
+      }
       BlockId blk = new BlockId(filename, blknum);
       rp = new RecordPage(tx, blk, layout);
       currentslot = -1;
@@ -143,6 +183,17 @@ public class TableScan implements UpdateScan {
       return rp.block().number() == tx.size(filename) - 1;
    }
 
+   /**
+    * Have the scan load blocks the specified number at a time,
+    * each batch with one vectored read, instead of one by one.
+    * Intended for scans that read a whole file sequentially,
+    * such as the runs of a sort.
+    * @param nblocks the number of blocks to load at a time
+    */
+   public void setReadBatch(int nblocks) {
+      readbatch = nblocks;
+   }
+
    public void setNull(String fldname) {
       rp.setNull(fldname);
    }
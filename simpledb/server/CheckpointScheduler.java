@@ -0,0 +1,68 @@
+package simpledb.server;
+
+import simpledb.buffer.PeriodicDaemon;
+import simpledb.log.LogMgr;
+
+/**
+ * A daemon thread that takes a checkpoint whenever the log has
+ * grown by a fixed number of bytes since the previous one, or a
+ * fixed interval has passed, whichever comes first.
+ * Frequent small checkpoints keep both the log that recovery
+ * reads and the pages each checkpoint has to write short.
+ * A limit of 0 disables that trigger; a scheduler having
+ * neither trigger never starts its thread.
+ */
+public class CheckpointScheduler extends PeriodicDaemon {
+   private static final long POLL_INTERVAL = 100; // milliseconds
+   private LogMgr lm;
+   private Runnable checkpoint;
+   private long logBytes, interval;
+   private long lastLSN, lastTime;
+
+   /**
+    * Create a scheduler for the specified checkpoint action.
+    * @param lm the log manager, whose latest LSN measures the log's growth
+    * @param checkpoint the action that takes a checkpoint
+    * @param logBytes the number of bytes of log between checkpoints, or 0
+    * @param interval the number of milliseconds between checkpoints, or 0
+    */
+   public CheckpointScheduler(LogMgr lm, Runnable checkpoint, long logBytes, long interval) {
+      super("simpledb-checkpointer",
+            (interval > 0) ? Math.min(interval, POLL_INTERVAL) : POLL_INTERVAL);
+      this.lm = lm;
+      this.checkpoint = checkpoint;
+      this.logBytes = logBytes;
+      this.interval = interval;
+   }
+
+   /**
+    * Start the scheduler thread, unless both triggers are disabled.
+    */
+   @Override
+   public synchronized void start() {
+      if (logBytes <= 0 && interval <= 0)
+         return;
+      lastLSN = lm.latestLSN();
+      lastTime = System.currentTimeMillis();
+      super.start();
+   }
+
+   /**
+    * Take a checkpoint if one is due. A failed checkpoint is
+    * skipped; the next one is scheduled as usual.
+    */
+   @Override
+   protected void runTask() {
+      if (!isDue())
+         return;
+      lastLSN = lm.latestLSN();
+      lastTime = System.currentTimeMillis();
+      checkpoint.run();
+   }
+
+   private boolean isDue() {
+      if (logBytes > 0 && lm.latestLSN() - lastLSN >= logBytes)
+         return true;
+      return interval > 0 && System.currentTimeMillis() - lastTime >= interval;
+   }
+}
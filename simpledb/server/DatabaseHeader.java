@@ -0,0 +1,111 @@
+package simpledb.server;
+
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * The database header file, which records the configuration
+ * that a database's files were created with.
+ * The block size and the checksum trailer are properties of
+ * the file format, so a database that has a header is always
+ * reopened with the values stored in it.
+ * The header also records the buffer pool size that the
+ * database was last started with.
+ */
+public class DatabaseHeader {
+   public static final String HEADER_FILE = "dbheader.dat";
+   private static final int MAGIC = 0x53444248; // "SDBH"
+   private static final int VERSION = 2; // 2: every block ends with the page LSN trailer
+
+   private int blocksize;
+   private int poolsize;
+   private boolean checksums;
+
+   public DatabaseHeader(int blocksize, int poolsize, boolean checksums) {
+      if (poolsize < 1)
+         throw new IllegalArgumentException("buffer pool size must be positive");
+      this.blocksize = blocksize;
+      this.poolsize = poolsize;
+      this.checksums = checksums;
+   }
+
+   /**
+    * Read the header of the database in the specified directory.
+    * @param dbDirectory the database directory
+    * @return the header, or null if the database has none
+    */
+   public static DatabaseHeader read(File dbDirectory) {
+      File file = new File(dbDirectory, HEADER_FILE);
+      if (!file.exists())
+         return null;
+      try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+         if (dis.readInt() != MAGIC)
+            throw new RuntimeException(file + " is not a database header");
+         int version = dis.readInt();
+         if (version != VERSION)
+            throw new RuntimeException("unsupported database header version " + version);
+         int blocksize = dis.readInt();
+         int poolsize = dis.readInt();
+         boolean checksums = dis.readBoolean();
+         return new DatabaseHeader(blocksize, poolsize, checksums);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to read database header: " + e.getMessage(), e);
+      }
+   }
+
+   /**
+    * Write the header into the specified database directory,
+    * replacing any previous header.
+    * The header is written to a new file, which is forced and then
+    * renamed over the old one, so a crash leaves either the old
+    * header or the new one, never a torn one.
+    * @param dbDirectory the database directory
+    */
+   public void write(File dbDirectory) {
+      File file = new File(dbDirectory, HEADER_FILE);
+      File newfile = new File(dbDirectory, HEADER_FILE + ".new");
+      try (FileOutputStream fos = new FileOutputStream(newfile);
+           DataOutputStream dos = new DataOutputStream(fos)) {
+         dos.writeInt(MAGIC);
+         dos.writeInt(VERSION);
+         dos.writeInt(blocksize);
+         dos.writeInt(poolsize);
+         dos.writeBoolean(checksums);
+         dos.flush();
+         fos.getFD().sync();
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to write database header: " + e.getMessage(), e);
+      }
+      try {
+         Files.move(newfile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to replace database header: " + e.getMessage(), e);
+      }
+   }
+
+   public int blockSize() {
+      return blocksize;
+   }
+
+   public int poolSize() {
+      return poolsize;
+   }
+
+   public boolean hasChecksums() {
+      return checksums;
+   }
+
+   @Override
+   public boolean equals(Object obj) {
+      if (!(obj instanceof DatabaseHeader))
+         return false;
+      DatabaseHeader h = (DatabaseHeader) obj;
+      return blocksize == h.blocksize && poolsize == h.poolsize && checksums == h.checksums;
+   }
+
+   @Override
+   public int hashCode() {
+      return 31 * (31 * blocksize + poolsize) + (checksums ? 1 : 0);
+   }
+}
@@ -1,10 +1,21 @@
 package simpledb.server;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import simpledb.file.FileMgr;
+import simpledb.file.MappedFileMgr;
 import simpledb.log.LogMgr;
+import simpledb.buffer.BackgroundWriter;
 import simpledb.buffer.BufferMgr;
+import simpledb.buffer.BufferPoolMonitor;
+import simpledb.buffer.BufferPoolStats;
+import simpledb.buffer.Prefetcher;
+import simpledb.buffer.ShardedBufferMgr;
+import simpledb.buffer.WarmCache;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.VersionStore;
 import simpledb.metadata.MetadataMgr;
 import simpledb.plan.*;
 import simpledb.index.planner.IndexUpdatePlanner;
@@ -12,32 +23,115 @@ import simpledb.opt.HeuristicQueryPlanner;
 
 public class SimpleDB {
    public static int BLOCK_SIZE = 400;
-   public static int BUFFER_SIZE = 8;
+   public static int BUFFER_SIZE = 0; // 0: the size the database was last opened with
+   public static final int DEFAULT_BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static int LOG_BUFFERS = 4;
+   public static int LOG_SEGMENT_SIZE = 16 * 1024 * 1024; // bytes
+   public static String LOG_ARCHIVE_DIR = null; // recycle old segments if null
+   public static boolean MAPPED_IO = false;
+   public static boolean GROUP_COMMIT = false;
+   public static int PREFETCH_DEPTH = 0;
+   public static boolean PAGE_CHECKSUMS = false;
+   public static int BUFFER_SHARDS = 1;
+   public static String REPLACEMENT_POLICY = null; // null: "lru" for one pool, "clock" when sharded
+   public static boolean BUFFER_ARENA = false;
+   public static int BGWRITER_PAGES = 0;
+   public static long BGWRITER_INTERVAL = 100; // milliseconds
+   public static long PIN_TIMEOUT = 10000; // milliseconds
+   public static boolean WARM_CACHE = false;
+   public static long CHECKPOINT_LOG_BYTES = 64L * 1024 * 1024; // 0 disables
+   public static long CHECKPOINT_INTERVAL = 0; // milliseconds, 0 disables
+   public static int RECOVERY_THREADS = 1; // more than 1 redoes in parallel and undoes in the background
+   public static boolean MVCC = false; // snapshot reads for read-only transactions
+   public static boolean JMX_METRICS = true;
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
+   private  BackgroundWriter bgwriter;
+   private  WarmCache   warmcache;
+   private  CheckpointScheduler checkpointer;
+   private  BufferPoolMonitor monitor; // null unless JMX_METRICS is on
+   private  VersionStore versions; // null unless MVCC is on
+   private  Future<?>   recoveryUndo; // rolls back the unfinished transactions after a parallel recovery
+   private  long        lastCheckpoint = 0; // the latest LSN when the previous checkpoint began
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
 
+   /**
+    * Open the database in the specified directory.
+    * A database that already has a header is reopened with
+    * the block size and checksum setting recorded in it,
+    * whatever the arguments; otherwise the arguments are used
+    * and recorded in a new header.
+    * The header is rewritten only if the configuration changed.
+    * A directory that holds data files but no header was written
+    * by an earlier version, whose blocks have no page trailer.
+    * This version cannot read such a database and there is no
+    * conversion tool, so it is refused rather than misread.
+    * @param dirname the name of the database directory
+    * @param blocksize the block size for a new database
+    * @param buffsize the number of buffers in the pool, or 0 for the
+    * size recorded in the header (DEFAULT_BUFFER_SIZE for a new database)
+    */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
       File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize); 
+      boolean checksums = PAGE_CHECKSUMS;
+      DatabaseHeader header = DatabaseHeader.read(dbDirectory);
+      if (header == null && hasDataFiles(dbDirectory))
+         throw new RuntimeException(dirname + " was created by an earlier version of "
+               + "SimpleDB whose blocks have no page trailer; this version cannot read it "
+               + "and there is no conversion tool: open it with the earlier version, or "
+               + "copy its data into a new database");
+      if (header != null) {
+         blocksize = header.blockSize();
+         checksums = header.hasChecksums();
+      }
+      if (buffsize <= 0)
+         buffsize = (header != null) ? header.poolSize() : DEFAULT_BUFFER_SIZE;
+      boolean syncOnWrite = !GROUP_COMMIT;
+      fm = MAPPED_IO ? new MappedFileMgr(dbDirectory, blocksize, syncOnWrite, checksums)
+                     : new FileMgr(dbDirectory, blocksize, syncOnWrite, checksums);
+      DatabaseHeader current = new DatabaseHeader(blocksize, buffsize, checksums);
+      if (!current.equals(header))
+         current.write(dbDirectory);
+      File archiveDir = (LOG_ARCHIVE_DIR == null) ? null : new File(LOG_ARCHIVE_DIR);
+      lm = new LogMgr(fm, LOG_FILE, LOG_BUFFERS, LOG_SEGMENT_SIZE, archiveDir);
+      // a sharded pool is meant for many concurrent pins, which
+      // the O(1) CLOCK ring serves better than the sorted LRU list
+      String policy = (REPLACEMENT_POLICY != null) ? REPLACEMENT_POLICY
+                    : (BUFFER_SHARDS > 1) ? "clock" : "lru";
+      bm = (BUFFER_SHARDS > 1)
+            ? new ShardedBufferMgr(fm, lm, buffsize, BUFFER_SHARDS, policy, BUFFER_ARENA)
+            : new BufferMgr(fm, lm, buffsize, policy, BUFFER_ARENA);
+      bm.setPrefetcher(new Prefetcher(bm, PREFETCH_DEPTH));
+      bm.setMaxWait(PIN_TIMEOUT);
+      // registered before the pool's threads start, since a database
+      // open twice in one process fails here
+      if (JMX_METRICS) {
+         monitor = new BufferPoolMonitor(bm);
+         monitor.register(canonicalPath(dbDirectory));
+      }
+      bgwriter = new BackgroundWriter(bm, BGWRITER_PAGES, BGWRITER_INTERVAL);
+      bgwriter.start();
+      warmcache = new WarmCache(bm, dbDirectory);
+      if (MVCC)
+         versions = new VersionStore(fm.blockSize());
+      checkpointer = new CheckpointScheduler(lm, this::checkpoint,
+                                             CHECKPOINT_LOG_BYTES, CHECKPOINT_INTERVAL);
    }
 
    public SimpleDB(String dirname) {
       this(dirname, BLOCK_SIZE, BUFFER_SIZE); 
-      Transaction tx = newTx();
       boolean isnew = fm.isNew();
       if (isnew)
          System.out.println("creating new database");
       else {
          System.out.println("recovering existing database");
-         tx.recover();
+         recover();
       }
+      Transaction tx = newTx();
       mdm = new MetadataMgr(isnew, tx);
       QueryPlanner qp = new BasicQueryPlanner(mdm);
       UpdatePlanner up = new BasicUpdatePlanner(mdm);
@@ -45,10 +139,162 @@ public class SimpleDB {
 //    UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      checkpointer.start(); // only once the redo pass is complete
+      if (WARM_CACHE && !isnew)
+         System.out.println("warmed " + warmcache.load() + " blocks");
+   }
+
+   private static String canonicalPath(File dbDirectory) {
+      try {
+         return dbDirectory.getCanonicalPath();
+      } catch (IOException e) {
+         throw new RuntimeException("cannot resolve the path of " + dbDirectory, e);
+      }
+   }
+
+   /**
+    * Determine whether the directory holds any file
+    * that outlives a restart, ignoring temporary tables
+    * and an unfinished header replacement.
+    */
+   private static boolean hasDataFiles(File dbDirectory) {
+      String[] names = dbDirectory.list();
+      if (names == null)
+         return false;
+      for (String name : names)
+         if (!name.startsWith("temp") && !name.equals(DatabaseHeader.HEADER_FILE + ".new"))
+            return true;
+      return false;
+   }
+
+   /**
+    * Recover the database, in a transaction of its own.
+    * With RECOVERY_THREADS greater than 1, the redo pass is spread
+    * over that many threads, and the database opens as soon as it
+    * is done: the unfinished transactions are rolled back in the
+    * background, under exclusive locks on the blocks they changed.
+    */
+   private void recover() {
+      Transaction tx = newTx();
+      if (RECOVERY_THREADS > 1)
+         recoveryUndo = tx.recoverConcurrently(RECOVERY_THREADS);
+      else {
+         tx.recover();
+         tx.commit();
+      }
    }
 
+   /**
+    * Take a fuzzy checkpoint while transactions continue to run:
+    * write the buffers that have stayed modified since the
+    * previous checkpoint began, append the checkpoint records
+    * to the log, release the log segments that precede the
+    * checkpoint's redo point, and save the list of resident
+    * blocks if the warm cache is enabled.
+    * The scheduler calls this method as the log grows or time
+    * passes, as set by CHECKPOINT_LOG_BYTES and CHECKPOINT_INTERVAL.
+    */
+   public synchronized void checkpoint() {
+      bgwriter.writeBefore(lastCheckpoint);
+      lastCheckpoint = lm.latestLSN();
+      long redo = Transaction.performFuzzyCheckpoint(lm, bm);
+      lm.releaseBefore(redo);
+      if (WARM_CACHE)
+         warmcache.save();
+   }
+
+   /**
+    * Prepare for the server process to exit: stop the
+    * background threads, write the modified buffers, write and
+    * close the log, save the list of resident blocks if the warm
+    * cache is enabled, and withdraw the pool's JMX monitor.
+    * If a background recovery failed, the shutdown completes
+    * and then throws its failure.
+    */
+   public void shutdown() {
+      checkpointer.shutdown();
+      RuntimeException failure = null;
+      try {
+         awaitRecovery();
+      }
+      catch(RuntimeException e) {
+         failure = e;
+      }
+      bgwriter.shutdown();
+      bm.prefetcher().shutdown();
+      bgwriter.checkpoint();
+      lm.close();
+      if (WARM_CACHE)
+         warmcache.save();
+      if (monitor != null)
+         monitor.unregister();
+      if (failure != null)
+         throw failure;
+   }
+
+   /**
+    * Return a snapshot of the buffer pool's statistics:
+    * its hits and misses, evictions, pin waits,
+    * and the number of resident blocks of each file.
+    * The same statistics are published through JMX as
+    * simpledb:type=BufferPool,name= the canonical path of
+    * the database directory, quoted.
+    * @return the buffer pool's statistics
+    */
+   public BufferPoolStats metrics() {
+      return bm.stats();
+   }
+
+   /**
+    * Create a transaction.
+    * New transactions are refused once a background recovery has
+    * failed, since the database then holds changes of unfinished
+    * transactions that were not rolled back.
+    * @return the new transaction
+    */
    public Transaction newTx() {
-      return new Transaction(fm, lm, bm);
+      Future<?> f = recoveryUndo;
+      if (f != null && f.isDone())
+         awaitRecovery();
+      return new Transaction(fm, lm, bm, versions, false);
+   }
+
+   /**
+    * Create a read-only transaction, which writes no log records,
+    * forces nothing, and may change only temporary tables.
+    * If MVCC is on, the transaction reads a snapshot of the
+    * committed database as of its start without taking locks,
+    * so it neither waits for writers nor delays them.
+    * A snapshot cannot be taken while the transactions left
+    * unfinished by a crash are still being rolled back, whose
+    * changes have no saved versions, so the method first waits
+    * for a background recovery to finish.
+    * @return the new transaction
+    */
+   public Transaction newReadOnlyTx() {
+      awaitRecovery();
+      return new Transaction(fm, lm, bm, versions, true);
+   }
+
+   /**
+    * Wait for a background recovery to finish.
+    * @throws RuntimeException if the recovery failed
+    */
+   private void awaitRecovery() {
+      Future<?> f = recoveryUndo;
+      if (f == null)
+         return;
+      try {
+         f.get();
+      }
+      catch(InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException("interrupted while waiting for recovery", e);
+      }
+      catch(ExecutionException e) {
+         throw new RuntimeException("recovery failed; the unfinished transactions "
+               + "will be rolled back at the next restart", e.getCause());
+      }
    }
    
    public MetadataMgr mdMgr() {
@@ -69,4 +315,7 @@ public class SimpleDB {
    public BufferMgr bufferMgr() {
       return bm;
    }   
+   public BackgroundWriter backgroundWriter() {
+      return bgwriter;
+   }
  }
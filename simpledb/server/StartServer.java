@@ -7,7 +7,12 @@ import simpledb.jdbc.network.*;
 public class StartServer {
    public static void main(String args[]) throws Exception {
       // configure and initialize the database
+      // usage: StartServer [dirname [blocksize [buffsize]]]
       String dirname = (args.length == 0) ? "studentdb" : args[0];
+      if (args.length > 1)
+         SimpleDB.BLOCK_SIZE = Integer.parseInt(args[1]);
+      if (args.length > 2)
+         SimpleDB.BUFFER_SIZE = Integer.parseInt(args[2]);
       SimpleDB db = new SimpleDB(dirname);
       
       // create a registry specific for the server on the default port
@@ -0,0 +1,122 @@
+package simpledb.tx;
+
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * New values for some of the fields of one record slot.
+ * A transaction applies them with {@link Transaction#setFields}
+ * as a single change, which is logged as a single log record
+ * instead of one record per field.
+ * Each field is identified by its offset from the start of the slot,
+ * and its value is an Integer or a String.
+ */
+public class SlotUpdate {
+   private BlockId blk;
+   private int slotOffset;
+   private List<Integer> offsets = new ArrayList<>();
+   private List<Object> values = new ArrayList<>();
+
+   /**
+    * Create an empty update of the slot that starts at the
+    * specified offset of the specified block.
+    * @param blk the block holding the slot
+    * @param slotOffset the offset of the slot in the block
+    */
+   public SlotUpdate(BlockId blk, int slotOffset) {
+      this.blk = blk;
+      this.slotOffset = slotOffset;
+   }
+
+   public SlotUpdate setInt(int offset, int val) {
+      offsets.add(offset);
+      values.add(val);
+      return this;
+   }
+
+   public SlotUpdate setString(int offset, String val) {
+      offsets.add(offset);
+      values.add(val);
+      return this;
+   }
+
+   public BlockId block() {
+      return blk;
+   }
+
+   public int slotOffset() {
+      return slotOffset;
+   }
+
+   /**
+    * Return the number of fields in the update.
+    * @return the number of fields
+    */
+   public int size() {
+      return offsets.size();
+   }
+
+   /**
+    * Return the offset of the i-th field from the start of the slot.
+    * @param i the index of a field
+    * @return the offset of the field in the slot
+    */
+   public int offset(int i) {
+      return offsets.get(i);
+   }
+
+   public boolean isString(int i) {
+      return values.get(i) instanceof String;
+   }
+
+   public int intValue(int i) {
+      return (Integer) values.get(i);
+   }
+
+   public String stringValue(int i) {
+      return (String) values.get(i);
+   }
+
+   /**
+    * Return an update of the same fields that holds their
+    * current values in the specified page, which can be
+    * applied to undo this update.
+    * @param p the page holding the slot
+    * @return the update that restores the current values
+    */
+   public SlotUpdate currentValues(Page p) {
+      SlotUpdate old = new SlotUpdate(blk, slotOffset);
+      for (int i = 0; i < size(); i++) {
+         int pos = slotOffset + offset(i);
+         if (isString(i))
+            old.setString(offset(i), p.getString(pos));
+         else
+            old.setInt(offset(i), p.getInt(pos));
+      }
+      return old;
+   }
+
+   /**
+    * Write the new values into the specified page.
+    * @param p the page holding the slot
+    */
+   public void applyTo(Page p) {
+      for (int i = 0; i < size(); i++) {
+         int pos = slotOffset + offset(i);
+         if (isString(i))
+            p.setString(pos, stringValue(i));
+         else
+            p.setInt(pos, intValue(i));
+      }
+   }
+
+   public String toString() {
+      StringBuilder sb = new StringBuilder("[");
+      for (int i = 0; i < size(); i++) {
+         if (i > 0)
+            sb.append(", ");
+         sb.append(offset(i)).append('=').append(values.get(i));
+      }
+      return sb.append(']').toString();
+   }
+}
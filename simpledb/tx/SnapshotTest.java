@@ -0,0 +1,59 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+
+/**
+ * Checks the snapshot reads of read-only transactions:
+ * a reader sees the database as of its start, neither
+ * waiting for writers nor seeing their later changes.
+ */
+public class SnapshotTest {
+   public static void main(String[] args) {
+      SimpleDB.MVCC = true;
+      SimpleDB db = new SimpleDB("snapshottest", 400, 8);
+      BlockId blk = new BlockId("testfile", 1);
+
+      Transaction tx1 = db.newTx();
+      tx1.pin(blk);
+      tx1.setInt(blk, 80, 1, false);
+      tx1.commit();
+
+      Transaction reader1 = db.newReadOnlyTx();
+      reader1.pin(blk);
+      print("reader1 at its start (1):", reader1.getInt(blk, 80));
+
+      // the writer holds an exclusive lock, which the reader ignores
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk);
+      tx2.setInt(blk, 80, 2, true);
+      print("reader1 during an uncommitted write (1):", reader1.getInt(blk, 80));
+      tx2.commit();
+      print("reader1 after the write commits (1):", reader1.getInt(blk, 80));
+
+      Transaction reader2 = db.newReadOnlyTx();
+      reader2.pin(blk);
+      print("reader2, started after the commit (2):", reader2.getInt(blk, 80));
+
+      Transaction tx3 = db.newTx();
+      tx3.pin(blk);
+      tx3.setInt(blk, 80, 3, true);
+      tx3.rollback();
+      print("reader2 after a write rolls back (2):", reader2.getInt(blk, 80));
+      print("reader1 still (1):", reader1.getInt(blk, 80));
+
+      try {
+         reader2.setInt(blk, 80, 4, true);
+         System.out.println("a read-only transaction changed a table");
+      }
+      catch(IllegalStateException e) {
+         System.out.println("a read-only transaction cannot change a table: " + e.getMessage());
+      }
+      reader1.commit();
+      reader2.commit();
+   }
+
+   private static void print(String msg, int val) {
+      System.out.println(msg + " " + val);
+   }
+}
@@ -5,6 +5,7 @@ import simpledb.log.LogMgr;
 import simpledb.buffer.*;
 import simpledb.tx.recovery.*;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import simpledb.tx.concurrency.VersionStore;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -13,7 +14,13 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class Transaction {
    private static int nextTxNum = 0;
@@ -24,11 +31,14 @@ public class Transaction {
    private FileMgr fm;
    private int txnum;
    private BufferList mybuffers;
+   private VersionStore versions; // null unless multi-version concurrency control is on
+   private boolean readOnly;
+   private long snapshot = -1; // the snapshot that a read-only transaction reads, if any
 
    private boolean active; // Flag to indicate if the transaction is active
    private List<BlockId> newlyAppendedBlocks; // List to track newly appended blocks
 
-   private static List<Transaction> activeTransactions = new ArrayList<>();
+   private static Set<Transaction> activeTransactions = ConcurrentHashMap.newKeySet();
    private static final Object checkpointLock = new Object();
    private static volatile boolean isCheckpointing = false;
    private static final String TXNUM_STORAGE_FILE = "txnum.dat";
@@ -38,18 +48,42 @@ public class Transaction {
 
 
    public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      this(fm, lm, bm, null, false);
+   }
+
+   /**
+    * Create a transaction that uses the specified version store.
+    * A writing transaction saves the versions that snapshot readers
+    * need. A read-only transaction reads the snapshot of the database
+    * as of its start, without taking locks, and may change only
+    * temporary tables; without a version store it reads under
+    * shared locks like any other transaction.
+    * <p>
+    * A read-only transaction has nothing to recover, so it
+    * takes the fast path: its number is allocated in memory,
+    * it writes no log records and forces nothing when it
+    * finishes, and checkpoints ignore it.
+    * @param versions the version store, or null
+    * @param readOnly true if the transaction does not change the database
+    */
+   public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, VersionStore versions, boolean readOnly) {
       this.fm = fm;
       this.bm = bm;
-      this.txnum = nextTxNumber();
-      this.recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
+      this.txnum = readOnly ? nextReadOnlyTxNumber() : nextTxNumber();
       this.concurMgr = new ConcurrencyMgr();
       this.mybuffers = new BufferList(bm);
       this.active = true;
       this.newlyAppendedBlocks = new ArrayList<>();
+      this.versions = versions;
+      this.readOnly = readOnly;
+      if (readOnly && versions != null)
+         this.snapshot = versions.beginSnapshot();
 
       this.fileMgr = fileMgr;
       this.tempFilesCreated = new ArrayList<>();
 
+      if (readOnly)
+         return;
       synchronized (checkpointLock) {
          while (isCheckpointing) {
             try {
@@ -58,16 +92,25 @@ public class Transaction {
                throw new RuntimeException("Transaction interrupted during checkpoint wait.", e);
             }
          }
+         this.recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
          activeTransactions.add(this);
       }
+      // the transaction is listed before its START record is written,
+      // so that a fuzzy checkpoint that begins after it cannot miss it
+      recoveryMgr.start();
    }
 
    public void commit() {
-      recoveryMgr.commit();
+      if (!readOnly)
+         recoveryMgr.commit();
+      else
+         bm.forget(txnum); // its temporary tables need not be written
+      finishVersions(true);
       concurMgr.release();
       mybuffers.unpinAll();
       active = false;
       activeTransactions.remove(this);
+      wakeCheckpoint();
 
       // Delete temporary files created in this transaction
       for (String tempFileName : tempFilesCreated) {
@@ -77,7 +120,11 @@ public class Transaction {
    }
 
    public void rollback() {
-      recoveryMgr.rollback();
+      if (!readOnly)
+         recoveryMgr.rollback();
+      else
+         bm.forget(txnum); // a read-only transaction changed only temporary tables
+      finishVersions(false);
       concurMgr.release();
       mybuffers.unpinAll();
       if (!newlyAppendedBlocks.isEmpty()) {
@@ -87,6 +134,7 @@ public class Transaction {
       active = false;
       newlyAppendedBlocks.clear();
       activeTransactions.remove(this);
+      wakeCheckpoint();
 
       // Delete temporary files created in this transaction
       for (String tempFileName : tempFilesCreated) {
@@ -105,8 +153,39 @@ public class Transaction {
       recoveryMgr.recover();
    }
 
+   /**
+    * Recover the database, redoing the log with the specified
+    * number of threads, and return as soon as the redo pass is done.
+    * The transactions that did not finish are then rolled back by a
+    * background thread, while this transaction holds an exclusive
+    * lock on every block they changed; new transactions can run
+    * meanwhile, and wait only if they need one of those blocks.
+    * The thread commits this transaction when it is done.
+    * If the rollback fails, this transaction stays active and
+    * keeps its locks, which fence the blocks that still hold
+    * uncommitted changes until the server restarts; the checkpoints
+    * taken meanwhile still list the unfinished transactions, so the
+    * restart rolls them back. The failure is reported by the
+    * returned future.
+    * @param redoThreads the number of threads that apply the redo pass
+    * @return the future of the background rollback
+    */
+   public Future<?> recoverConcurrently(int redoThreads) {
+      bm.flushAll(txnum);
+      for (BlockId blk : recoveryMgr.analyzeAndRedo(redoThreads))
+         concurMgr.xLock(blk);
+      FutureTask<Void> undo = new FutureTask<>(() -> {
+         recoveryMgr.undoLosers();
+         commit();
+         return null;
+      });
+      new Thread(undo, "simpledb-recovery-undo").start();
+      return undo;
+   }
+
    public void pin(BlockId blk) {
-      concurMgr.sLock(blk);
+      if (snapshot < 0)
+         concurMgr.sLock(blk);
       mybuffers.pin(blk);
    }
 
@@ -115,44 +194,73 @@ public class Transaction {
    }
 
    public int getInt(BlockId blk, int offset) {
+      if (snapshot >= 0)
+         return versions.getInt(mybuffers.getBuffer(blk), offset, snapshot);
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
       return buff.contents().getInt(offset);
    }
 
    public String getString(BlockId blk, int offset) {
+      if (snapshot >= 0)
+         return versions.getString(mybuffers.getBuffer(blk), offset, snapshot);
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
       return buff.contents().getString(offset);
    }
 
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
+      checkWritable(blk.fileName());
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
-      if (okToLog)
+      saveVersion(buff);
+      long lsn = -1;
+      if (isLogged(blk, okToLog))
          lsn = recoveryMgr.setInt(buff, offset, val);
       buff.contents().setInt(offset, val);
       buff.setModified(txnum, lsn);
    }
 
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
+      checkWritable(blk.fileName());
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
-      if (okToLog)
+      saveVersion(buff);
+      long lsn = -1;
+      if (isLogged(blk, okToLog))
          lsn = recoveryMgr.setString(buff, offset, val);
       buff.contents().setString(offset, val);
       buff.setModified(txnum, lsn);
    }
 
+   /**
+    * Set several fields of one record slot as a single change,
+    * which is logged by a single log record.
+    * @param update the slot and the new values of its fields
+    * @param okToLog true if the change is to be logged
+    */
+   public void setFields(SlotUpdate update, boolean okToLog) {
+      BlockId blk = update.block();
+      checkWritable(blk.fileName());
+      concurMgr.xLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      saveVersion(buff);
+      long lsn = -1;
+      if (isLogged(blk, okToLog))
+         lsn = recoveryMgr.setFields(buff, update);
+      update.applyTo(buff.contents());
+      buff.setModified(txnum, lsn);
+   }
+
    public int size(String filename) {
       BlockId dummyblk = new BlockId(filename, END_OF_FILE);
-      concurMgr.sLock(dummyblk);
+      if (snapshot < 0)
+         concurMgr.sLock(dummyblk);
       return fm.length(filename);
    }
 
    public BlockId append(String filename) {
+      checkWritable(filename);
       BlockId dummyblk = new BlockId(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
       BlockId newBlock = fm.append(filename);
@@ -161,14 +269,48 @@ public class Transaction {
    }
 
    public int blockSize() {
-      return fm.blockSize();
+      return fm.dataSize();
    }
 
    public int availableBuffs() {
       return bm.available();
    }
 
-   public static void performQuiescentCheckpoint(LogMgr lm) {
+   /**
+    * Return a read-ahead tracker for a scan of the specified file.
+    * Prefetched blocks are read into free buffers without
+    * taking locks; the scan still locks each block when it pins it.
+    * @param filename the name of the scanned file
+    * @return the read-ahead tracker
+    */
+   public ReadAhead readAhead(String filename) {
+      return bm.prefetcher().readAhead(filename);
+   }
+
+   /**
+    * Asynchronously read the specified range of blocks,
+    * which the caller is about to pin.
+    * @param filename the name of the file
+    * @param startblk the first block of the range
+    * @param endblk the last block of the range
+    */
+   public void prefetch(String filename, int startblk, int endblk) {
+      bm.prefetcher().prefetch(filename, startblk, endblk);
+   }
+
+   /**
+    * Read the specified range of blocks into free buffers
+    * with one vectored read, returning when they are resident.
+    * Like prefetch, this takes no locks and pins nothing.
+    * @param filename the name of the file
+    * @param startblk the first block of the range
+    * @param endblk the last block of the range
+    */
+   public void loadRange(String filename, int startblk, int endblk) {
+      bm.loadRange(filename, startblk, endblk);
+   }
+
+   public static void performQuiescentCheckpoint(LogMgr lm, BufferMgr bm) {
       synchronized (checkpointLock) {
          isCheckpointing = true;
          for (Transaction tx : activeTransactions) {
@@ -180,20 +322,105 @@ public class Transaction {
                }
             }
          }
-         int lsn = lm.writeCheckpointRecord(activeTransactions);
+         long begin = BeginCheckpointRecord.writeToLog(lm);
+         long lsn = CheckpointRecord.writeToLog(lm, begin, new HashMap<>(), bm.dirtyPages());
          lm.flush(lsn);
          isCheckpointing = false;
          checkpointLock.notifyAll();
       }
    }
 
-   public static void performNonQuiescentCheckpoint(LogMgr lm) {
-      synchronized (checkpointLock) {
-         int lsn = lm.writeCheckpointRecord(activeTransactions);
-         lm.flush(lsn);
+   /**
+    * Write a fuzzy checkpoint, while transactions continue to run.
+    * The checkpoint is a BEGIN_CHECKPOINT record followed by
+    * CHECKPOINT records that hold the latest LSN of each active
+    * transaction and the buffer pool's dirty page table, which
+    * are collected after the begin record is written; recovery
+    * reads the log forward from the begin record.
+    * No page is written and no lock is held that a new or
+    * running transaction needs.
+    * @param lm the log manager
+    * @param bm the buffer manager
+    * @return the redo point of the checkpoint: the LSN of the
+    * oldest record that a recovery from it may need, which is
+    * the lowest of the begin LSN, the recovery LSNs of the
+    * dirty pages, and the START LSNs of the active transactions
+    */
+   public static long performFuzzyCheckpoint(LogMgr lm, BufferMgr bm) {
+      long begin = BeginCheckpointRecord.writeToLog(lm);
+      long redo = begin;
+      Map<Integer, Long> txTable = new HashMap<>();
+      for (Transaction tx : activeTransactions) {
+         long last = tx.recoveryMgr.lastLSN();
+         if (last < 0)
+            continue; // not yet started, or already finished
+         txTable.put(tx.txnum, last);
+         txTable.putAll(tx.recoveryMgr.losers()); // still being rolled back by a recovery
+         redo = Math.min(redo, tx.recoveryMgr.firstLSN());
+      }
+      Map<BlockId, Long> dirtyPages = bm.dirtyPages();
+      for (long reclsn : dirtyPages.values())
+         redo = Math.min(redo, reclsn);
+      long lsn = CheckpointRecord.writeToLog(lm, begin, txTable, dirtyPages);
+      lm.flush(lsn);
+      return redo;
+   }
+
+   private static void wakeCheckpoint() {
+      if (isCheckpointing) {
+         synchronized (checkpointLock) {
+            checkpointLock.notifyAll();
+         }
       }
    }
 
+   /**
+    * Read-only transactions may change only their temporary tables,
+    * which no other transaction reads.
+    */
+   private void checkWritable(String filename) {
+      if (readOnly && !filename.startsWith("temp"))
+         throw new IllegalStateException("transaction " + txnum + " is read-only");
+   }
+
+   /**
+    * Determine whether a change to the block is logged.
+    * A temporary table is deleted when the server restarts and
+    * is discarded with the query that made it, so its changes
+    * need neither redo nor undo; leaving them unlogged also keeps
+    * its name out of the log's table of file ids.
+    */
+   private boolean isLogged(BlockId blk, boolean okToLog) {
+      return okToLog && !readOnly && !blk.fileName().startsWith("temp");
+   }
+
+   /**
+    * Save the page of the buffer in the version store before
+    * the transaction first changes it, so that the snapshots
+    * taken before the transaction commits can still read it.
+    * Temporary tables are private to their transaction
+    * and have no versions.
+    */
+   private void saveVersion(Buffer buff) {
+      if (versions != null && !readOnly && !buff.block().fileName().startsWith("temp"))
+         versions.beforeWrite(txnum, buff);
+   }
+
+   /**
+    * Publish or discard the transaction's versions, while it
+    * still holds its locks, or release its snapshot.
+    */
+   private void finishVersions(boolean committed) {
+      if (versions == null)
+         return;
+      if (snapshot >= 0)
+         versions.endSnapshot(snapshot);
+      else if (committed)
+         versions.commit(txnum);
+      else
+         versions.rollback(txnum);
+   }
+
    private boolean isActive() {
       return this.active;
    }
@@ -203,11 +430,22 @@ public class Transaction {
    }
 
    private static synchronized int nextTxNumber() {
-      int lastTxNum = readLastTxNum();
+      int lastTxNum = Math.max(readLastTxNum(), nextTxNum);
       nextTxNum = lastTxNum + 1;
       saveLastTxNum(nextTxNum);
       return nextTxNum;
    }
+
+   /**
+    * Allocate the number of a read-only transaction, which is never
+    * written to the log and so need not be saved: it only has to
+    * differ from the numbers of the transactions now running.
+    */
+   private static synchronized int nextReadOnlyTxNumber() {
+      if (nextTxNum == 0)
+         nextTxNum = readLastTxNum();
+      return ++nextTxNum;
+   }
    private static void saveLastTxNum(int txNum) {
       try (DataOutputStream dos = new DataOutputStream(new FileOutputStream(TXNUM_STORAGE_FILE))) {
          dos.writeInt(txNum);
@@ -0,0 +1,195 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+import simpledb.file.*;
+import simpledb.buffer.Buffer;
+
+/**
+ * The version store of multi-version concurrency control.
+ * Before a transaction first changes a block, the store saves
+ * a copy of the block's page; the copies of a block form a chain,
+ * newest first. A writer holds an exclusive lock on the block
+ * until it finishes, so the writers of a chain commit in chain order.
+ * <p>
+ * Each commit is stamped with the next value of a counter, and a
+ * read-only transaction takes the current value as its snapshot:
+ * it sees the changes of the transactions whose stamp is no greater.
+ * To read a block as of a snapshot, the chain is followed from the
+ * newest version for as long as the versions are invisible; the
+ * copy saved by the last of them is the page as of the snapshot,
+ * and if the newest version is visible the current page is.
+ * Snapshot reads therefore take no locks, and neither wait for
+ * writers nor make writers wait.
+ * <p>
+ * A version is discarded when its writer rolls back, or once
+ * every active snapshot sees its writer's changes.
+ */
+public class VersionStore {
+   private static final long UNCOMMITTED = Long.MAX_VALUE;
+   private int blocksize;
+   private Map<BlockId, Deque<Version>> chains = new HashMap<>();
+   private Map<Integer, List<Version>> versionsOf = new HashMap<>();
+   private TreeMap<Long, Integer> snapshots = new TreeMap<>();
+   private long lastCommit = 0;
+
+   /**
+    * Create an empty version store for pages of the specified size.
+    * @param blocksize the block size of the database
+    */
+   public VersionStore(int blocksize) {
+      this.blocksize = blocksize;
+   }
+
+   /**
+    * Save the current page of the buffer as a version of its block,
+    * unless the transaction has already saved one.
+    * The transaction must hold an exclusive lock on the block,
+    * and calls this method before it changes the page.
+    * @param txnum the writing transaction
+    * @param buff the buffer holding the block
+    */
+   public synchronized void beforeWrite(int txnum, Buffer buff) {
+      BlockId blk = buff.block();
+      Deque<Version> chain = chains.computeIfAbsent(blk, k -> new ArrayDeque<>());
+      Version newest = chain.peekFirst();
+      if (newest != null && newest.txnum == txnum)
+         return;
+      Page image = new Page(new byte[blocksize]);
+      image.copyFrom(buff.contents());
+      Version v = new Version(txnum, blk, image);
+      chain.addFirst(v);
+      versionsOf.computeIfAbsent(txnum, k -> new ArrayList<>()).add(v);
+   }
+
+   /**
+    * Stamp the versions of a committing transaction, which makes
+    * its changes visible to the snapshots taken from now on.
+    * The transaction must still hold its locks.
+    * @param txnum the committing transaction
+    */
+   public synchronized void commit(int txnum) {
+      List<Version> versions = versionsOf.remove(txnum);
+      if (versions == null)
+         return;
+      long stamp = ++lastCommit;
+      for (Version v : versions) {
+         v.commitStamp = stamp;
+         prune(v.blk);
+      }
+   }
+
+   /**
+    * Discard the versions of a transaction that has rolled back,
+    * whose pages once more hold what the versions saved.
+    * @param txnum the transaction
+    */
+   public synchronized void rollback(int txnum) {
+      List<Version> versions = versionsOf.remove(txnum);
+      if (versions == null)
+         return;
+      for (Version v : versions) {
+         Deque<Version> chain = chains.get(v.blk);
+         chain.remove(v);
+         if (chain.isEmpty())
+            chains.remove(v.blk);
+      }
+   }
+
+   /**
+    * Take a snapshot of the committed state of the database.
+    * @return the snapshot, which is the stamp of the latest commit
+    */
+   public synchronized long beginSnapshot() {
+      snapshots.merge(lastCommit, 1, Integer::sum);
+      return lastCommit;
+   }
+
+   /**
+    * Release a snapshot, discarding the versions that
+    * only it could still see.
+    * @param snapshot a snapshot returned by beginSnapshot
+    */
+   public synchronized void endSnapshot(long snapshot) {
+      long oldest = snapshots.firstKey();
+      if (snapshots.merge(snapshot, -1, Integer::sum) == 0)
+         snapshots.remove(snapshot);
+      if (snapshot == oldest)
+         for (BlockId blk : new ArrayList<>(chains.keySet()))
+            prune(blk);
+   }
+
+   /**
+    * Return the integer at the specified offset of the buffer's block,
+    * as of the specified snapshot.
+    * @param buff a pinned buffer holding the block
+    * @param offset the offset of the value
+    * @param snapshot the reader's snapshot
+    * @return the value as of the snapshot
+    */
+   public synchronized int getInt(Buffer buff, int offset, long snapshot) {
+      return pageAsOf(buff, snapshot).getInt(offset);
+   }
+
+   /**
+    * Return the string at the specified offset of the buffer's block,
+    * as of the specified snapshot.
+    * @param buff a pinned buffer holding the block
+    * @param offset the offset of the value
+    * @param snapshot the reader's snapshot
+    * @return the value as of the snapshot
+    */
+   public synchronized String getString(Buffer buff, int offset, long snapshot) {
+      return pageAsOf(buff, snapshot).getString(offset);
+   }
+
+   /**
+    * Return the number of versions held, for monitoring.
+    * @return the number of saved pages
+    */
+   public synchronized int size() {
+      int n = 0;
+      for (Deque<Version> chain : chains.values())
+         n += chain.size();
+      return n;
+   }
+
+   private Page pageAsOf(Buffer buff, long snapshot) {
+      Page p = buff.contents();
+      Deque<Version> chain = chains.get(buff.block());
+      if (chain != null)
+         for (Version v : chain) {
+            if (v.commitStamp <= snapshot)
+               break;
+            p = v.image;
+         }
+      return p;
+   }
+
+   /**
+    * Discard the oldest versions of the block's chain
+    * for as long as every snapshot sees them.
+    */
+   private void prune(BlockId blk) {
+      Deque<Version> chain = chains.get(blk);
+      if (chain == null)
+         return;
+      long horizon = snapshots.isEmpty() ? lastCommit : snapshots.firstKey();
+      while (!chain.isEmpty() && chain.peekLast().commitStamp <= horizon)
+         chain.removeLast();
+      if (chain.isEmpty())
+         chains.remove(blk);
+   }
+
+   private static class Version {
+      final int txnum;
+      final BlockId blk;
+      final Page image;
+      long commitStamp = UNCOMMITTED;
+
+      Version(int txnum, BlockId blk, Page image) {
+         this.txnum = txnum;
+         this.blk = blk;
+         this.image = image;
+      }
+   }
+}
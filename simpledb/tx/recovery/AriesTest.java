@@ -0,0 +1,114 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.*;
+import simpledb.buffer.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Run this program twice. The first run leaves the log as a crash
+ * would: one transaction committed, one unfinished whose changes
+ * never reached the disk, and one whose rollback was cut short
+ * after undoing its last change. The second run recovers, and
+ * each block should then hold the values printed as expected.
+ */
+public class AriesTest {
+   private static FileMgr fm;
+   private static LogMgr lm;
+   private static BufferMgr bm;
+   private static SimpleDB db;
+   private static BlockId blk0, blk1, blk2;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("ariestest", 400, 8);
+      fm = db.fileMgr();
+      lm = db.logMgr();
+      bm = db.bufferMgr();
+      blk0 = new BlockId("testfile", 0);
+      blk1 = new BlockId("testfile", 1);
+      blk2 = new BlockId("testfile", 2);
+
+      if (fm.length("testfile") == 0) {
+         initialize();
+         crash();
+      }
+      else {
+         recover();
+      }
+   }
+
+   private static void initialize() {
+      Transaction tx = db.newTx();
+      for (BlockId blk : new BlockId[] {blk0, blk1, blk2}) {
+         tx.pin(blk);
+         for (int pos = 0; pos < 24; pos += Integer.BYTES)
+            tx.setInt(blk, pos, pos, false);
+      }
+      tx.commit();
+      printValues("After initialization:");
+   }
+
+   private static void crash() {
+      // committed: its changes are on disk
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk0);
+      for (int pos = 0; pos < 24; pos += Integer.BYTES)
+         tx2.setInt(blk0, pos, pos + 100, true);
+      tx2.commit();
+
+      // unfinished: its changes are only in the log
+      Transaction tx3 = db.newTx();
+      tx3.pin(blk1);
+      for (int pos = 0; pos < 24; pos += Integer.BYTES)
+         tx3.setInt(blk1, pos, pos + 200, true);
+
+      // unfinished: its changes are on disk
+      Transaction tx4 = db.newTx();
+      tx4.pin(blk2);
+      for (int pos = 0; pos < 24; pos += Integer.BYTES)
+         tx4.setInt(blk2, pos, pos + 300, true);
+      LogIterator iter = lm.iterator();
+      UpdateRecord last = (UpdateRecord) LogRecord.createLogRecord(iter.next(), lm);
+      int txnum = last.txNumber();
+      bm.flushAll(txnum);
+
+      // tx4 begins to roll back: its last change is undone and
+      // compensated, and the crash comes before the next one,
+      // so the undone value is only in the log
+      long clr = CompensationRecord.writeToLog(lm, txnum, iter.lsn(),
+                                               last.prevLSN(), last.before());
+      Buffer buff = bm.pin(blk2);
+      last.before().applyTo(buff.contents());
+      buff.setModified(txnum, clr);
+      bm.unpin(buff);
+      lm.flush(clr);
+      printValues("At the crash:");
+      // the program stops here without finishing tx3 or tx4
+   }
+
+   private static void recover() {
+      Transaction tx = db.newTx();
+      tx.recover();
+      printValues("After recovery:");
+      System.out.println("expected:");
+      System.out.println("100 0 0 104 4 4 108 8 8 112 12 12 116 16 16 120 20 20");
+   }
+
+   // Print the values that made it to disk.
+   private static void printValues(String msg) {
+      System.out.println(msg);
+      Page p0 = new Page(fm.blockSize());
+      Page p1 = new Page(fm.blockSize());
+      Page p2 = new Page(fm.blockSize());
+      fm.read(blk0, p0);
+      fm.read(blk1, p1);
+      fm.read(blk2, p2);
+      for (int pos = 0; pos < 24; pos += Integer.BYTES) {
+         System.out.print(p0.getInt(pos) + " ");
+         System.out.print(p1.getInt(pos) + " ");
+         System.out.print(p2.getInt(pos) + " ");
+      }
+      System.out.println();
+   }
+}
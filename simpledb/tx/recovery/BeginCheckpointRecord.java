@@ -0,0 +1,54 @@
+package simpledb.tx.recovery;
+
+import simpledb.log.*;
+import simpledb.tx.Transaction;
+
+/**
+ * The BEGIN_CHECKPOINT log record, which starts a fuzzy checkpoint.
+ * The tables in the CHECKPOINT records that end the checkpoint
+ * are collected after this record is written, while transactions
+ * keep running; recovery therefore analyzes the log from this
+ * record, so that it also reads the records written meanwhile.
+ */
+public class BeginCheckpointRecord implements LogRecord {
+   public BeginCheckpointRecord() {
+   }
+
+   public int op() {
+      return BEGIN_CHECKPOINT;
+   }
+
+   /**
+    * Checkpoint records have no associated transaction,
+    * and so the method returns a "dummy", negative txid.
+    */
+   public int txNumber() {
+      return -1; // dummy value
+   }
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no undo information.
+    */
+   public void undo(Transaction tx) {}
+
+   public void redo(Transaction tx) {}
+
+   public boolean isCommit() {
+      return false;
+   }
+
+   public String toString() {
+      return "<BEGIN_CHECKPOINT>";
+   }
+
+   /**
+    * A static method to write a BEGIN_CHECKPOINT record to the log.
+    * @return the LSN of the record, which is the begin LSN of the checkpoint
+    */
+   public static long writeToLog(LogMgr lm) {
+      LogEncoder rec = new LogEncoder(1);
+      rec.putByte(BEGIN_CHECKPOINT);
+      return lm.append(rec.toByteArray());
+   }
+}
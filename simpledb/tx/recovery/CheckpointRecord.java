@@ -1,15 +1,47 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
-import simpledb.log.LogMgr;
+import java.util.*;
+import simpledb.file.*;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 /**
- * The CHECKPOINT log record.
+ * The CHECKPOINT log record, which ends a checkpoint.
+ * A checkpoint records the LSN of its BEGIN_CHECKPOINT record, the
+ * transaction table (each active transaction with the LSN of
+ * its latest record) and the dirty page table (each block with
+ * unwritten changes, with the LSN of the earliest of them).
+ * Recovery analyzes the log from the begin LSN of the latest
+ * checkpoint instead of from the start of the log.
+ * Since a log record must fit in a log page, a large checkpoint
+ * is written as several records with the same begin LSN,
+ * the last of which is marked as such.
  * @author Edward Sciore
  */
 public class CheckpointRecord implements LogRecord {
-   public CheckpointRecord() {
+   private static final int TX_ENTRY = 0, PAGE_ENTRY = 1;
+   private static final int MAX_ENTRY_SIZE = 1 + 3 * 10;
+   private long beginLSN;
+   private boolean last;
+   private Map<Integer, Long> txTable = new HashMap<>();
+   private Map<BlockId, Long> dirtyPages = new HashMap<>();
+
+   /**
+    * Create a CHECKPOINT record by reading its values from the log.
+    * @param d the decoder of the record, positioned after its type
+    * @param lm the log manager, which resolves the file ids
+    */
+   public CheckpointRecord(LogDecoder d, LogMgr lm) {
+      beginLSN = d.getVarint() - 1;
+      last = d.getByte() != 0;
+      while (d.hasMore()) {
+         if (d.getByte() == TX_ENTRY)
+            txTable.put(d.getInt(), d.getVarint() - 1);
+         else {
+            BlockId blk = new BlockId(lm.fileName(d.getInt()), d.getInt());
+            dirtyPages.put(blk, d.getVarint());
+         }
+      }
    }
 
    public int op() {
@@ -24,26 +56,82 @@ public class CheckpointRecord implements LogRecord {
       return -1; // dummy value
    }
 
+   /**
+    * Return the LSN of the checkpoint's BEGIN_CHECKPOINT record.
+    * @return the begin LSN
+    */
+   public long beginLSN() {
+      return beginLSN;
+   }
+
+   /**
+    * Return true if this is the last record of its checkpoint.
+    * @return whether the checkpoint is complete
+    */
+   public boolean isLast() {
+      return last;
+   }
+
+   public Map<Integer, Long> txTable() {
+      return txTable;
+   }
+
+   public Map<BlockId, Long> dirtyPages() {
+      return dirtyPages;
+   }
+
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   public void redo(Transaction tx) {}
+
+   public boolean isCommit() {
+      return false;
+   }
+
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + beginLSN + " " + txTable + " " + dirtyPages + (last ? "" : " ...") + ">";
    }
 
    /** 
-    * A static method to write a checkpoint record to the log.
-    * This log record contains the CHECKPOINT operator,
-    * and nothing else.
-    * @return the LSN of the last log value
+    * A static method to write a checkpoint to the log.
+    * The checkpoint is written as as many records as its
+    * tables need.
+    * @param beginLSN the LSN of the checkpoint's BEGIN_CHECKPOINT record,
+    * written before the tables began to be collected
+    * @param txTable the LSN of the latest record of each active transaction
+    * @param dirtyPages the recovery LSN of each dirty block
+    * @return the LSN of the checkpoint's last record
     */
-   public static int writeToLog(LogMgr lm) {
-      byte[] rec = new byte[Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, CHECKPOINT);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, long beginLSN, Map<Integer, Long> txTable,
+         Map<BlockId, Long> dirtyPages) {
+      Iterator<Map.Entry<Integer, Long>> txs = txTable.entrySet().iterator();
+      Iterator<Map.Entry<BlockId, Long>> pages = dirtyPages.entrySet().iterator();
+      int limit = lm.maxRecordSize() - MAX_ENTRY_SIZE;
+      while (true) {
+         LogEncoder rec = new LogEncoder(64);
+         rec.putByte(CHECKPOINT).putVarint(beginLSN + 1);
+         int flagpos = rec.size();
+         rec.putByte(0);
+         while (rec.size() < limit && txs.hasNext()) {
+            Map.Entry<Integer, Long> e = txs.next();
+            rec.putByte(TX_ENTRY).putVarint(e.getKey()).putVarint(e.getValue() + 1);
+         }
+         while (rec.size() < limit && pages.hasNext()) {
+            Map.Entry<BlockId, Long> e = pages.next();
+            BlockId blk = e.getKey();
+            rec.putByte(PAGE_ENTRY).putVarint(lm.fileId(blk.fileName()));
+            rec.putVarint(blk.number()).putVarint(e.getValue());
+         }
+         boolean last = !txs.hasNext() && !pages.hasNext();
+         if (last)
+            rec.setByte(flagpos, 1);
+         long lsn = lm.append(rec.toByteArray());
+         if (last)
+            return lsn;
+      }
    }
 }
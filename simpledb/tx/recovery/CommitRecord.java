@@ -1,7 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 /**
@@ -11,10 +10,11 @@ import simpledb.tx.Transaction;
  */
 public class CommitRecord implements LogRecord {
    private int txnum;
+   private long prevLSN;
 
-   public CommitRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
+   public CommitRecord(LogDecoder d) {
+      txnum = d.getInt();
+      prevLSN = d.getVarint() - 1;
    }
 
    public int op() {
@@ -25,6 +25,10 @@ public class CommitRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
    /**
     * Does nothing, because a commit record
     * contains no undo information.
@@ -39,16 +43,15 @@ public class CommitRecord implements LogRecord {
    /**
     * A static method to write a commit record to the log.
     * This log record contains the COMMIT operator,
-    * followed by the transaction id.
+    * followed by the transaction id and the LSN of the
+    * transaction's previous record.
     *
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2 * Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, COMMIT);
-      p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, int txnum, long prevLSN) {
+      LogEncoder rec = new LogEncoder(16);
+      rec.putByte(COMMIT).putVarint(txnum).putVarint(prevLSN + 1);
+      return lm.append(rec.toByteArray());
    }
 
    @Override
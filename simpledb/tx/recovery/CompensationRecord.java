@@ -0,0 +1,114 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.*;
+import simpledb.tx.SlotUpdate;
+import simpledb.tx.Transaction;
+
+/**
+ * The COMPENSATE log record, written for each change that a
+ * rollback or a recovery undoes. The record holds the values the
+ * undo wrote, so that it can be redone, and the LSN of the next
+ * record of the transaction still to be undone, so that an undo
+ * interrupted by a crash resumes where it stopped instead of
+ * undoing the same changes again. A compensation record is
+ * itself never undone.
+ */
+public class CompensationRecord implements UpdateRecord {
+   private int txnum;
+   private long prevLSN, undoNextLSN;
+   private SlotUpdate after;
+
+   /**
+    * Create a COMPENSATE record by reading its values from the log.
+    * @param d the decoder of the record, positioned after its type
+    * @param lm the log manager, which resolves the file id
+    */
+   public CompensationRecord(LogDecoder d, LogMgr lm) {
+      txnum = d.getInt();
+      prevLSN = d.getVarint() - 1;
+      undoNextLSN = d.getVarint() - 1;
+      String filename = lm.fileName(d.getInt());
+      BlockId blk = new BlockId(filename, d.getInt());
+      after = new SlotUpdate(blk, d.getInt());
+      int n = d.getInt();
+      for (int i = 0; i < n; i++) {
+         int field = d.getInt();
+         if ((field & 1) != 0)
+            after.setString(field >>> 1, d.getString());
+         else
+            after.setInt(field >>> 1, (int) d.getSigned());
+      }
+   }
+
+   public int op() {
+      return COMPENSATE;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevLSN;
+   }
+
+   /**
+    * Return the LSN of the next record of the transaction
+    * to be undone, or -1 if the undo is complete.
+    * @return the LSN of the next record to undo
+    */
+   public long undoNextLSN() {
+      return undoNextLSN;
+   }
+
+   public SlotUpdate after() {
+      return after;
+   }
+
+   public SlotUpdate before() {
+      return null;
+   }
+
+   public String toString() {
+      return "<COMPENSATE " + txnum + " " + after.block() + " " + after.slotOffset()
+            + " " + after + " " + undoNextLSN + ">";
+   }
+
+   /**
+    * Does nothing, because a compensation record is never undone.
+    */
+   public void undo(Transaction tx) {}
+
+   public void redo(Transaction tx) {
+      BlockId blk = after.block();
+      tx.pin(blk);
+      tx.setFields(after, false);
+      tx.unpin(blk);
+   }
+
+   public boolean isCommit() {
+      return false;
+   }
+
+   /**
+    * A static method to write a COMPENSATE record to the log.
+    * @param undo the values written by the undo
+    * @param undoNextLSN the LSN of the next record to undo
+    * @return the LSN of the record
+    */
+   public static long writeToLog(LogMgr lm, int txnum, long prevLSN, long undoNextLSN, SlotUpdate undo) {
+      BlockId blk = undo.block();
+      LogEncoder rec = new LogEncoder(24 + 6 * undo.size());
+      rec.putByte(COMPENSATE).putVarint(txnum).putVarint(prevLSN + 1).putVarint(undoNextLSN + 1);
+      rec.putVarint(lm.fileId(blk.fileName())).putVarint(blk.number());
+      rec.putVarint(undo.slotOffset()).putVarint(undo.size());
+      for (int i = 0; i < undo.size(); i++) {
+         if (undo.isString(i))
+            rec.putVarint((undo.offset(i) << 1) | 1).putString(undo.stringValue(i));
+         else
+            rec.putVarint(undo.offset(i) << 1).putSigned(undo.intValue(i));
+      }
+      return lm.append(rec.toByteArray());
+   }
+}
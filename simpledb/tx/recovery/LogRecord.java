@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 /**
@@ -10,7 +10,8 @@ import simpledb.tx.Transaction;
 public interface LogRecord {
    static final int CHECKPOINT = 0, START = 1,
          COMMIT = 2, ROLLBACK  = 3,
-         SETINT = 4, SETSTRING = 5;
+         SETINT = 4, SETSTRING = 5, SETFIELDS = 6,
+         COMPENSATE = 7, BEGIN_CHECKPOINT = 8;
 
    /**
     * Returns the log record's type.
@@ -25,6 +26,17 @@ public interface LogRecord {
     */
    int txNumber();
 
+   /**
+    * Returns the LSN of the previous log record of the
+    * same transaction, or -1 if there is none.
+    * Following these LSNs visits the transaction's records
+    * without scanning the rest of the log.
+    * @return the LSN of the transaction's previous record
+    */
+   default long prevLSN() {
+      return -1;
+   }
+
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
@@ -39,24 +51,33 @@ public interface LogRecord {
 
    /**
     * Interpret the bytes returned by the log iterator.
-    * @param bytes
-    * @return
+    * The first byte of a record is its type, and the rest
+    * is decoded by the constructor of that type.
+    * @param bytes the bytes of a log record
+    * @param lm the log manager, which resolves file ids
+    * @return the log record
     */
-   static LogRecord createLogRecord(byte[] bytes) {
-      Page p = new Page(bytes);
-      switch (p.getInt(0)) {
+   static LogRecord createLogRecord(byte[] bytes, LogMgr lm) {
+      LogDecoder d = new LogDecoder(bytes);
+      switch (d.getByte()) {
       case CHECKPOINT:
-         return new CheckpointRecord();
+         return new CheckpointRecord(d, lm);
       case START:
-         return new StartRecord(p);
+         return new StartRecord(d);
       case COMMIT:
-         return new CommitRecord(p);
+         return new CommitRecord(d);
       case ROLLBACK:
-         return new RollbackRecord(p);
+         return new RollbackRecord(d);
       case SETINT:
-         return new SetIntRecord(p);
+         return new SetIntRecord(d, lm);
       case SETSTRING:
-         return new SetStringRecord(p);
+         return new SetStringRecord(d, lm);
+      case SETFIELDS:
+         return new SetFieldsRecord(d, lm);
+      case COMPENSATE:
+         return new CompensationRecord(d, lm);
+      case BEGIN_CHECKPOINT:
+         return new BeginCheckpointRecord();
       default:
          return null;
       }
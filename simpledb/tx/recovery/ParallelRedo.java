@@ -0,0 +1,118 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+import java.util.concurrent.*;
+import simpledb.tx.SlotUpdate;
+
+/**
+ * The workers of a parallel redo pass.
+ * The recovering thread reads the log forward and hands each
+ * change that must be redone to the worker that its block hashes
+ * to, so the changes to a page are applied by a single worker,
+ * in log order, while the pages of different workers are
+ * replayed in parallel.
+ * Each worker has a bounded queue, which keeps the reader
+ * from running far ahead of the workers.
+ */
+class ParallelRedo {
+   private static final int QUEUE_SIZE = 1024;
+   private static final Change DONE = new Change(null, -1);
+   private RecoveryMgr rm;
+   private List<BlockingQueue<Change>> queues = new ArrayList<>();
+   private List<Thread> workers = new ArrayList<>();
+   private volatile RuntimeException failure;
+
+   /**
+    * Start the specified number of workers, which redo changes
+    * on behalf of the specified recovery manager.
+    * @param rm the recovery manager of the recovering transaction
+    * @param threads the number of workers
+    */
+   ParallelRedo(RecoveryMgr rm, int threads) {
+      this.rm = rm;
+      for (int i = 0; i < threads; i++) {
+         BlockingQueue<Change> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+         Thread t = new Thread(() -> work(queue), "simpledb-redo-" + i);
+         t.setDaemon(true);
+         queues.add(queue);
+         workers.add(t);
+         t.start();
+      }
+   }
+
+   /**
+    * Hand a change to the worker of its block,
+    * waiting if the worker's queue is full.
+    * @param update the change
+    * @param lsn the LSN of its log record
+    */
+   void submit(SlotUpdate update, long lsn) {
+      int i = Math.floorMod(update.block().hashCode(), queues.size());
+      put(queues.get(i), new Change(update, lsn));
+   }
+
+   /**
+    * Wait for the workers to apply every change handed to them,
+    * and stop them.
+    * @throws RuntimeException the first failure of a worker
+    */
+   void finish() {
+      for (BlockingQueue<Change> queue : queues)
+         put(queue, DONE);
+      try {
+         for (Thread t : workers)
+            t.join();
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted while waiting for redo", e);
+      }
+      if (failure != null)
+         throw failure;
+   }
+
+   private void put(BlockingQueue<Change> queue, Change c) {
+      try {
+         queue.put(c);
+      }
+      catch(InterruptedException e) {
+         throw new RuntimeException("interrupted during redo", e);
+      }
+   }
+
+   private void work(BlockingQueue<Change> queue) {
+      try {
+         for (Change c = queue.take(); c != DONE; c = queue.take()) {
+            // after a failure, keep draining so that the reader never blocks
+            if (failure == null)
+               rm.redo(c.update, c.lsn);
+         }
+      }
+      catch(InterruptedException e) {
+         failure = new RuntimeException("interrupted during redo", e);
+      }
+      catch(RuntimeException e) {
+         failure = e;
+         drain(queue);
+      }
+   }
+
+   private void drain(BlockingQueue<Change> queue) {
+      try {
+         while (queue.take() != DONE)
+            ;
+      }
+      catch(InterruptedException e) {
+         // the reader is stopping too
+      }
+   }
+
+   private static class Change {
+      final SlotUpdate update;
+      final long lsn;
+
+      Change(SlotUpdate update, long lsn) {
+         this.update = update;
+         this.lsn = lsn;
+      }
+   }
+}
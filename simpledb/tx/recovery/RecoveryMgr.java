@@ -4,15 +4,40 @@ import java.util.*;
 import simpledb.file.*;
 import simpledb.log.*;
 import simpledb.buffer.*;
+import simpledb.tx.SlotUpdate;
 import simpledb.tx.Transaction;
 
 import static simpledb.tx.recovery.LogRecord.*;
 
+/**
+ * The recovery manager. Each transaction has its own recovery
+ * manager, which logs the transaction's changes and undoes
+ * them on rollback.
+ * <p>
+ * Restart recovery follows ARIES. An analysis pass reads the log
+ * forward from the beginning of the latest checkpoint and rebuilds
+ * the transaction table and the dirty page table as of the crash.
+ * A redo pass then repeats history from the earliest recovery LSN
+ * in the dirty page table, skipping each change that its page
+ * already holds, as shown by the page LSN. Finally an undo pass
+ * rolls back the transactions that were active at the crash,
+ * writing a compensation record for each change it undoes.
+ * The work done is proportional to the log written since the
+ * latest checkpoint, not to the size of the log.
+ * <p>
+ * The redo pass can be spread over several threads, partitioned
+ * by block, and the undo pass can run while new transactions do:
+ * see {@link #analyzeAndRedo} and {@link #undoLosers}.
+ */
 public class RecoveryMgr {
    private LogMgr lm;
    private BufferMgr bm;
    private Transaction tx;
    private int txnum;
+   private long firstLSN = -1; // the LSN of the transaction's START record
+   private long lastLSN = -1; // the LSN of the transaction's latest log record
+   private boolean finished = false;
+   private Map<Integer, Long> losers = new HashMap<>(); // the transactions to roll back after a crash
    private Set<BlockId> modifiedBlocks; // For Programming Ex 5.45
 
    public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm) {
@@ -21,104 +46,384 @@ public class RecoveryMgr {
       this.lm = lm;
       this.bm = bm;
       this.modifiedBlocks = new HashSet<>();
-      StartRecord.writeToLog(lm, txnum);
+   }
+
+   /**
+    * Write the transaction's START record.
+    * A transaction registers itself as active before it starts,
+    * so that a checkpoint that begins after the START record
+    * finds the transaction in its list.
+    */
+   public synchronized void start() {
+      firstLSN = lastLSN = StartRecord.writeToLog(lm, txnum);
+   }
+
+   /**
+    * Return the LSN of the transaction's START record, or
+    * during a recovery the START LSN of the earliest transaction
+    * it has yet to roll back, if that is earlier.
+    * The log must be kept from this LSN on while the
+    * transaction is active, since a rollback or a recovery
+    * may have to undo any of the records after it.
+    * @return the LSN of the earliest record still needed
+    */
+   public synchronized long firstLSN() {
+      return firstLSN;
+   }
+
+   /**
+    * Return the LSN of the transaction's latest log record,
+    * which is its entry in a checkpoint's transaction table,
+    * or -1 if the transaction has not started or has finished.
+    * The methods that log a change hold the recovery manager's
+    * lock from the append of the record until its LSN is saved,
+    * so a checkpoint never misses a record appended before it began,
+    * nor lists a transaction whose COMMIT or ROLLBACK precedes it.
+    * @return the LSN of the latest record
+    */
+   public synchronized long lastLSN() {
+      return finished ? -1 : lastLSN;
    }
 
    public void commit() {
       bm.flushAll(txnum);
-      int lsn = CommitRecord.writeToLog(lm, txnum);
+      long lsn;
+      synchronized (this) {
+         lsn = CommitRecord.writeToLog(lm, txnum, lastLSN);
+         finished = true;
+      }
       lm.flush(lsn);
    }
 
    public void rollback() {
-      doRollback();
+      long lsn;
+      synchronized (this) {
+         lastLSN = undo(txnum, lastLSN);
+      }
       bm.flushAll(txnum);
-      int lsn = RollbackRecord.writeToLog(lm, txnum);
+      synchronized (this) {
+         lsn = RollbackRecord.writeToLog(lm, txnum, lastLSN);
+         finished = true;
+      }
       lm.flush(lsn);
    }
 
+   /**
+    * Recover the database after a crash: analyze the log from the
+    * latest checkpoint, redo the changes missing from the pages,
+    * and roll back the transactions that did not finish.
+    * The recovered pages are then written and a checkpoint
+    * is taken, so that the next recovery starts from here.
+    */
    public void recover() {
-      doUndoPhase();
-      doRedoPhase();
+      analyzeAndRedo(1);
+      undoLosers();
    }
 
-   private void doUndoPhase() {
-      Iterator<byte[]> iter = lm.iterator();
-      while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.txNumber() == txnum && !rec.isCommit()) {
-            rec.undo(tx);
-         }
+   /**
+    * The first half of a recovery: analyze the log from the latest
+    * checkpoint and redo the changes missing from the pages,
+    * using the specified number of threads.
+    * With more than one thread, the recovering thread reads the
+    * log and hands each change to the worker that its block hashes
+    * to, which preserves the order of the changes to each page.
+    * The transactions that did not finish are saved for
+    * {@link #undoLosers}, and the blocks that they changed are
+    * returned, so that the caller can lock them before new
+    * transactions run alongside the undo.
+    * @param threads the number of threads that apply the redo pass
+    * @return the blocks changed by the transactions to roll back
+    */
+   public Set<BlockId> analyzeAndRedo(int threads) {
+      Set<BlockId> blocks = new HashSet<>();
+      long start = lastCheckpoint();
+      if (start < 0)
+         return blocks;
+      Map<Integer, Long> txTable = new HashMap<>();
+      Map<BlockId, Long> dirtyPages = new HashMap<>();
+      analyze(start, txTable, dirtyPages);
+      if (!dirtyPages.isEmpty())
+         redo(Collections.min(dirtyPages.values()), dirtyPages, threads);
+      txTable.remove(txnum);
+      long first = firstLSN;
+      for (Map.Entry<Integer, Long> e : txTable.entrySet()) {
+         long startLSN = scanChain(e.getValue(), blocks);
+         if (startLSN >= 0)
+            first = Math.min(first, startLSN);
       }
+      synchronized (this) {
+         losers.putAll(txTable);
+         firstLSN = first;
+      }
+      return blocks;
    }
 
-   private void doRedoPhase() {
-      Iterator<byte[]> iter = lm.iterator();
-      while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.txNumber() == txnum && rec.isCommit()) {
-            rec.redo(tx);
+   /**
+    * The second half of a recovery: roll back the transactions
+    * that did not finish, write the recovered pages, and take
+    * a checkpoint, so that the next recovery starts from here.
+    * Until a transaction is rolled back, it is listed in the
+    * checkpoints taken meanwhile, as returned by {@link #losers}.
+    */
+   public void undoLosers() {
+      for (Map.Entry<Integer, Long> e : losers().entrySet()) {
+         long lsn = undo(e.getKey(), e.getValue());
+         synchronized (this) {
+            RollbackRecord.writeToLog(lm, e.getKey(), lsn);
+            losers.remove(e.getKey());
          }
       }
+      bm.flushAll(txnum);
+      Transaction.performFuzzyCheckpoint(lm, bm);
    }
 
-   public int setInt(Buffer buff, int offset, int newval) {
+   /**
+    * Return the transactions that this recovery has yet to
+    * roll back, each with the LSN of its latest log record,
+    * which are their entries in a checkpoint's transaction table.
+    * @return the unfinished transactions of the recovery
+    */
+   public synchronized Map<Integer, Long> losers() {
+      return new HashMap<>(losers);
+   }
+
+   public synchronized long setInt(Buffer buff, int offset, int newval) {
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      int lsn = SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval, newval);
-      return lsn;
+      buff.beginChange(lm.lowerBoundLSN());
+      lastLSN = SetIntRecord.writeToLog(lm, txnum, lastLSN, blk, offset, oldval, newval);
+      return lastLSN;
    }
 
-   public int setString(Buffer buff, int offset, String newval) {
+   public synchronized long setString(Buffer buff, int offset, String newval) {
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
-      int lsn = SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval, newval);
-      return lsn;
+      buff.beginChange(lm.lowerBoundLSN());
+      lastLSN = SetStringRecord.writeToLog(lm, txnum, lastLSN, blk, offset, oldval, newval);
+      return lastLSN;
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds
-    * the transaction's START record,
-    * calling undo() for each of the transaction's
-    * log records.
+    * Write a SETFIELDS record for the specified update of a
+    * record slot. If the old and new values of the slot are too
+    * large to share one log page, each field is logged by a
+    * record of its own instead.
+    * @param buff the buffer holding the slot
+    * @param update the new values of the slot's fields
+    * @return the LSN of the last record written
     */
-   private void doRollback() {
-      Iterator<byte[]> iter = lm.iterator();
+   public synchronized long setFields(Buffer buff, SlotUpdate update) {
+      SlotUpdate old = update.currentValues(buff.contents());
+      buff.beginChange(lm.lowerBoundLSN());
+      byte[] rec = SetFieldsRecord.toBytes(lm, txnum, lastLSN, old, update);
+      if (rec.length <= lm.maxRecordSize()) {
+         lastLSN = lm.append(rec);
+         return lastLSN;
+      }
+      BlockId blk = buff.block();
+      for (int i = 0; i < update.size(); i++) {
+         int offset = update.slotOffset() + update.offset(i);
+         if (update.isString(i))
+            lastLSN = SetStringRecord.writeToLog(lm, txnum, lastLSN, blk, offset,
+                  old.stringValue(i), update.stringValue(i));
+         else
+            lastLSN = SetIntRecord.writeToLog(lm, txnum, lastLSN, blk, offset,
+                  old.intValue(i), update.intValue(i));
+      }
+      return lastLSN;
+   }
+
+   /**
+    * Return the begin LSN of the latest complete checkpoint,
+    * or the LSN of the oldest log record if there is none,
+    * or -1 if the log is empty.
+    * The log is read backward only as far as that checkpoint.
+    */
+   private long lastCheckpoint() {
+      LogIterator iter = lm.iterator();
+      long oldest = -1;
       while (iter.hasNext()) {
          byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(tx);
+         oldest = iter.lsn();
+         if (bytes[0] == CHECKPOINT) {
+            CheckpointRecord cp = (CheckpointRecord) LogRecord.createLogRecord(bytes, lm);
+            if (cp.isLast())
+               return cp.beginLSN();
          }
       }
+      return oldest;
    }
 
    /**
-    * Do a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * The analysis pass. Read the log forward from the specified LSN,
+    * and fill in the transaction table, which maps each transaction
+    * active at the end of the log to the LSN of its latest record,
+    * and the dirty page table, which maps each block that may
+    * hold unwritten changes to the LSN of the earliest of them.
+    * The tables of the checkpoint that began at the LSN are merged
+    * in as they are read; a transaction seen to finish is not
+    * added back, and the earlier recovery LSN of a block wins.
     */
-   private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<>();
-      Iterator<byte[]> iter = lm.iterator();
+   private void analyze(long start, Map<Integer, Long> txTable, Map<BlockId, Long> dirtyPages) {
+      Set<Integer> finished = new HashSet<>();
+      ForwardLogIterator iter = lm.forwardIterator(start);
       while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
-            finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(tx); // Undo only if the transaction is not finished
+         LogRecord rec = LogRecord.createLogRecord(iter.next(), lm);
+         long lsn = iter.lsn();
+         if (rec == null)
+            continue;
+         switch (rec.op()) {
+         case BEGIN_CHECKPOINT:
+            break;
+         case CHECKPOINT:
+            CheckpointRecord cp = (CheckpointRecord) rec;
+            if (cp.beginLSN() != start)
+               break;
+            for (Map.Entry<Integer, Long> e : cp.txTable().entrySet())
+               if (!finished.contains(e.getKey()))
+                  txTable.merge(e.getKey(), e.getValue(), Math::max);
+            for (Map.Entry<BlockId, Long> e : cp.dirtyPages().entrySet())
+               dirtyPages.merge(e.getKey(), e.getValue(), Math::min);
+            break;
+         case COMMIT:
+         case ROLLBACK:
+            txTable.remove(rec.txNumber());
+            finished.add(rec.txNumber());
+            break;
+         default:
+            txTable.put(rec.txNumber(), lsn);
+            if (rec instanceof UpdateRecord)
+               dirtyPages.putIfAbsent(((UpdateRecord) rec).after().block(), lsn);
+         }
+      }
+   }
+
+   /**
+    * The redo pass. Read the log forward from the specified LSN,
+    * and repeat each change to a block in the dirty page table
+    * whose record is not older than the block's recovery LSN,
+    * unless the page LSN shows that the page already holds it.
+    * Committed and uncommitted changes are redone alike;
+    * the undo pass then removes the uncommitted ones.
+    */
+   private void redo(long start, Map<BlockId, Long> dirtyPages, int threads) {
+      ParallelRedo workers = (threads > 1) ? new ParallelRedo(this, threads) : null;
+      try {
+         ForwardLogIterator iter = lm.forwardIterator(start);
+         while (iter.hasNext()) {
+            byte[] bytes = iter.next();
+            long lsn = iter.lsn();
+            LogRecord rec = LogRecord.createLogRecord(bytes, lm);
+            if (!(rec instanceof UpdateRecord))
+               continue;
+            SlotUpdate update = ((UpdateRecord) rec).after();
+            Long reclsn = dirtyPages.get(update.block());
+            if (reclsn == null || lsn < reclsn)
+               continue;
+            if (workers == null)
+               redo(update, lsn);
+            else
+               workers.submit(update, lsn);
+         }
+      }
+      finally {
+         if (workers != null)
+            workers.finish();
+      }
+   }
+
+   /**
+    * Redo the specified change, unless the page LSN shows that
+    * the page already holds it.
+    * @param update the change
+    * @param lsn the LSN of its log record
+    */
+   void redo(SlotUpdate update, long lsn) {
+      Buffer buff = bm.pin(update.block());
+      if (buff.getLSN() < lsn) {
+         update.applyTo(buff.contents());
+         buff.setModified(txnum, lsn);
       }
+      bm.unpin(buff);
+   }
+
+   /**
+    * Follow the chain of a transaction's log records back from
+    * the specified one, as {@link #undo} does, and collect the
+    * blocks of the changes that an undo would reverse.
+    * @param last the LSN of the transaction's latest record
+    * @param blocks the set to add the blocks to
+    * @return the LSN of the transaction's START record, or -1
+    */
+   private long scanChain(long last, Set<BlockId> blocks) {
+      LogReader reader = lm.reader();
+      long lsn = last;
+      while (lsn >= 0) {
+         LogRecord rec = LogRecord.createLogRecord(reader.read(lsn), lm);
+         if (rec.op() == START)
+            return lsn;
+         if (rec instanceof CompensationRecord) {
+            lsn = ((CompensationRecord) rec).undoNextLSN();
+            continue;
+         }
+         if (rec instanceof UpdateRecord)
+            blocks.add(((UpdateRecord) rec).before().block());
+         lsn = rec.prevLSN();
+      }
+      return -1;
+   }
+
+   /**
+    * Roll back the specified transaction, following the chain of
+    * its log records back from the specified one until it finds
+    * the transaction's START record. Each record is read directly
+    * from its LSN, so the records of other transactions are never read,
+    * and the log is not flushed: records not yet written are read from
+    * the log manager's ring of pages.
+    * Each change undone is logged by a compensation record, and a
+    * compensation record found on the way sends the undo straight to
+    * the record it names, skipping the changes already undone before
+    * a crash.
+    * @param txn the transaction to roll back
+    * @param last the LSN of the transaction's latest record
+    * @return the LSN of the transaction's latest record after the undo
+    */
+   private long undo(int txn, long last) {
+      LogReader reader = lm.reader();
+      long lsn = last;
+      while (lsn >= 0) {
+         LogRecord rec = LogRecord.createLogRecord(reader.read(lsn), lm);
+         if (rec.op() == START)
+            break;
+         if (rec instanceof CompensationRecord) {
+            lsn = ((CompensationRecord) rec).undoNextLSN();
+            continue;
+         }
+         if (rec instanceof UpdateRecord)
+            last = compensate(txn, last, ((UpdateRecord) rec).before(), rec.prevLSN());
+         lsn = rec.prevLSN();
+      }
+      return last;
+   }
+
+   /**
+    * Undo a change of the specified transaction, logging the undo
+    * by a compensation record that becomes the page's LSN.
+    * The buffer is marked as modified by this recovery manager's
+    * transaction, which writes it when it finishes.
+    */
+   private long compensate(int txn, long prevLSN, SlotUpdate undo, long undoNextLSN) {
+      Buffer buff = bm.pin(undo.block());
+      long lsn;
+      synchronized (this) {
+         buff.beginChange(lm.lowerBoundLSN());
+         lsn = CompensationRecord.writeToLog(lm, txn, prevLSN, undoNextLSN, undo);
+         losers.replace(txn, lsn);
+      }
+      undo.applyTo(buff.contents());
+      buff.setModified(txnum, lsn);
+      bm.unpin(buff);
+      return lsn;
    }
 
    public void saveBlockCopy(BlockId blk, FileMgr fm) {
@@ -1,7 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 /**
@@ -10,14 +9,15 @@ import simpledb.tx.Transaction;
  */
 public class RollbackRecord implements LogRecord {
    private int txnum;
+   private long prevLSN;
 
    /**
     * Create a RollbackRecord object.
-    * @param txnum the ID of the specified transaction
+    * @param d the decoder of the record, positioned after its type
     */
-   public RollbackRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
+   public RollbackRecord(LogDecoder d) {
+      txnum = d.getInt();
+      prevLSN = d.getVarint() - 1;
    }
 
    public int op() {
@@ -28,6 +28,10 @@ public class RollbackRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
    /**
     * Does nothing, because a rollback record
     * contains no undo information.
@@ -41,14 +45,19 @@ public class RollbackRecord implements LogRecord {
    /** 
     * A static method to write a rollback record to the log.
     * This log record contains the ROLLBACK operator,
-    * followed by the transaction id.
+    * followed by the transaction id and the LSN of the
+    * transaction's previous record.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, ROLLBACK);
-      p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, int txnum, long prevLSN) {
+      LogEncoder rec = new LogEncoder(16);
+      rec.putByte(ROLLBACK).putVarint(txnum).putVarint(prevLSN + 1);
+      return lm.append(rec.toByteArray());
+   }
+
+   public void redo(Transaction tx) {}
+
+   public boolean isCommit() {
+      return false;
    }
 }
@@ -0,0 +1,134 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.*;
+import simpledb.tx.SlotUpdate;
+import simpledb.tx.Transaction;
+
+/**
+ * The SETFIELDS log record: a physiological record of the
+ * changes to several fields of one record slot, such as the
+ * fields of an inserted row together with its in-use flag.
+ * The record gives the block and the offset of the slot once,
+ * and for each field its offset within the slot, its type,
+ * and its old and new values, all encoded as varints
+ * except for the string values.
+ */
+public class SetFieldsRecord implements UpdateRecord {
+   private int txnum;
+   private long prevLSN;
+   private SlotUpdate before, after;
+
+   /**
+    * Create a SETFIELDS record by reading its values from the log.
+    * @param d the decoder of the record, positioned after its type
+    * @param lm the log manager, which resolves the file id
+    */
+   public SetFieldsRecord(LogDecoder d, LogMgr lm) {
+      txnum = d.getInt();
+      prevLSN = d.getVarint() - 1;
+      String filename = lm.fileName(d.getInt());
+      BlockId blk = new BlockId(filename, d.getInt());
+      int slotOffset = d.getInt();
+      before = new SlotUpdate(blk, slotOffset);
+      after = new SlotUpdate(blk, slotOffset);
+      int n = d.getInt();
+      for (int i = 0; i < n; i++) {
+         int field = d.getInt();
+         int offset = field >>> 1;
+         if ((field & 1) != 0) {
+            before.setString(offset, d.getString());
+            after.setString(offset, d.getString());
+         }
+         else {
+            before.setInt(offset, (int) d.getSigned());
+            after.setInt(offset, (int) d.getSigned());
+         }
+      }
+   }
+
+   public int op() {
+      return SETFIELDS;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevLSN;
+   }
+
+   public SlotUpdate after() {
+      return after;
+   }
+
+   public SlotUpdate before() {
+      return before;
+   }
+
+   public String toString() {
+      return "<SETFIELDS " + txnum + " " + before.block() + " " + before.slotOffset()
+            + " " + before + " " + after + ">";
+   }
+
+   /**
+    * Restore the old values of the fields, without logging the change.
+    */
+   public void undo(Transaction tx) {
+      BlockId blk = before.block();
+      tx.pin(blk);
+      tx.setFields(before, false); // don't log the undo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * Write the new values of the fields again, without logging the change.
+    */
+   public void redo(Transaction tx) {
+      BlockId blk = after.block();
+      tx.pin(blk);
+      tx.setFields(after, false);
+      tx.unpin(blk);
+   }
+
+   public boolean isCommit() {
+      return false;
+   }
+
+   /**
+    * A static method to write a SETFIELDS record to the log.
+    * @param before the fields of the update with their old values
+    * @param after the update
+    * @return the LSN of the record
+    * @see #toBytes
+    */
+   public static long writeToLog(LogMgr lm, int txnum, long prevLSN, SlotUpdate before, SlotUpdate after) {
+      return lm.append(toBytes(lm, txnum, prevLSN, before, after));
+   }
+
+   /**
+    * Encode a SETFIELDS record. The type of each field is kept in
+    * the low bit of its offset, so a field costs its values plus
+    * one or two bytes.
+    * @return the encoded record
+    */
+   static byte[] toBytes(LogMgr lm, int txnum, long prevLSN, SlotUpdate before, SlotUpdate after) {
+      BlockId blk = after.block();
+      LogEncoder rec = new LogEncoder(16 + 8 * after.size());
+      rec.putByte(SETFIELDS).putVarint(txnum).putVarint(prevLSN + 1);
+      rec.putVarint(lm.fileId(blk.fileName())).putVarint(blk.number());
+      rec.putVarint(after.slotOffset()).putVarint(after.size());
+      for (int i = 0; i < after.size(); i++) {
+         if (after.isString(i)) {
+            rec.putVarint((after.offset(i) << 1) | 1);
+            rec.putString(before.stringValue(i)).putString(after.stringValue(i));
+         }
+         else {
+            rec.putVarint(after.offset(i) << 1);
+            rec.putSigned(before.intValue(i)).putSigned(after.intValue(i));
+         }
+      }
+      return rec.toByteArray();
+   }
+}
@@ -1,29 +1,28 @@
 package simpledb.tx.recovery;
 
 import simpledb.file.*;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
+import simpledb.tx.SlotUpdate;
 import simpledb.tx.Transaction;
 
-public class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+public class SetIntRecord implements UpdateRecord {
+   private int txnum, offset, oldval, newval;
+   private long prevLSN;
    private BlockId blk;
 
    /**
     * Create a new setint log record.
-    * @param bb the bytebuffer containing the log values
+    * @param d the decoder of the record, positioned after its type
+    * @param lm the log manager, which resolves the file id
     */
-   public SetIntRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
-      String filename = p.getString(fpos);
-      int bpos = fpos + Page.maxLength(filename.length());
-      int blknum = p.getInt(bpos);
-      blk = new BlockId(filename, blknum);
-      int opos = bpos + Integer.BYTES;
-      offset = p.getInt(opos);
-      int vpos = opos + Integer.BYTES;      
-      val = p.getInt(vpos);
+   public SetIntRecord(LogDecoder d, LogMgr lm) {
+      txnum = d.getInt();
+      prevLSN = d.getVarint() - 1;
+      String filename = lm.fileName(d.getInt());
+      blk = new BlockId(filename, d.getInt());
+      offset = d.getInt();
+      oldval = (int) d.getSigned();
+      newval = (int) d.getSigned();
    }
 
    public int op() {
@@ -34,8 +33,20 @@ public class SetIntRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
+   public SlotUpdate after() {
+      return new SlotUpdate(blk, offset).setInt(0, newval);
+   }
+
+   public SlotUpdate before() {
+      return new SlotUpdate(blk, offset).setInt(0, oldval);
+   }
+
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
@@ -47,32 +58,38 @@ public class SetIntRecord implements LogRecord {
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setInt(blk, offset, val, false); // don't log the undo!
+      tx.setInt(blk, offset, oldval, false); // don't log the undo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * Write the new value saved in the log record again.
+    */
+   public void redo(Transaction tx) {
+      tx.pin(blk);
+      tx.setInt(blk, offset, newval, false);
       tx.unpin(blk);
    }
 
+   public boolean isCommit() {
+      return false;
+   }
+
    /**
     * A static method to write a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
+    * followed by the transaction id, the LSN of the transaction's
+    * previous record, the file id, number,
     * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * and new integer values at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
-      int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
-      int bpos = fpos + Page.maxLength(blk.fileName().length());
-      int opos = bpos + Integer.BYTES;
-      int vpos = opos + Integer.BYTES;
-      byte[] rec = new byte[vpos + Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, SETINT);
-      p.setInt(tpos, txnum);
-      p.setString(fpos, blk.fileName());
-      p.setInt(bpos, blk.number());
-      p.setInt(opos, offset);
-      p.setInt(vpos, val);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, int txnum, long prevLSN, BlockId blk, int offset,
+         int oldval, int newval) {
+      LogEncoder rec = new LogEncoder(24);
+      rec.putByte(SETINT).putVarint(txnum).putVarint(prevLSN + 1);
+      rec.putVarint(lm.fileId(blk.fileName())).putVarint(blk.number());
+      rec.putVarint(offset).putSigned(oldval).putSigned(newval);
+      return lm.append(rec.toByteArray());
    }
 }
@@ -1,30 +1,29 @@
 package simpledb.tx.recovery;
 
 import simpledb.file.*;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
+import simpledb.tx.SlotUpdate;
 import simpledb.tx.Transaction;
 
-public class SetStringRecord implements LogRecord {
+public class SetStringRecord implements UpdateRecord {
    private int txnum, offset;
-   private String val;
+   private String oldval, newval;
+   private long prevLSN;
    private BlockId blk;
 
    /**
-    * Create a new setint log record.
-    * @param bb the bytebuffer containing the log values
+    * Create a new setstring log record.
+    * @param d the decoder of the record, positioned after its type
+    * @param lm the log manager, which resolves the file id
     */
-   public SetStringRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
-      String filename = p.getString(fpos);
-      int bpos = fpos + Page.maxLength(filename.length());
-      int blknum = p.getInt(bpos);
-      blk = new BlockId(filename, blknum);
-      int opos = bpos + Integer.BYTES;
-      offset = p.getInt(opos);
-      int vpos = opos + Integer.BYTES;      
-      val = p.getString(vpos);
+   public SetStringRecord(LogDecoder d, LogMgr lm) {
+      txnum = d.getInt();
+      prevLSN = d.getVarint() - 1;
+      String filename = lm.fileName(d.getInt());
+      blk = new BlockId(filename, d.getInt());
+      offset = d.getInt();
+      oldval = d.getString();
+      newval = d.getString();
    }
 
    public int op() {
@@ -35,46 +34,63 @@ public class SetStringRecord implements LogRecord {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
+   public SlotUpdate after() {
+      return new SlotUpdate(blk, offset).setString(0, newval);
+   }
+
+   public SlotUpdate before() {
+      return new SlotUpdate(blk, offset).setString(0, oldval);
+   }
+
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
     * Replace the specified data value with the value saved in the log record.
     * The method pins a buffer to the specified block,
-    * calls setInt to restore the saved value,
+    * calls setString to restore the saved value,
     * and unpins the buffer.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setString(blk, offset, val, false); // don't log the undo!
+      tx.setString(blk, offset, oldval, false); // don't log the undo!
+      tx.unpin(blk);
+   }
+
+   /**
+    * Write the new value saved in the log record again.
+    */
+   public void redo(Transaction tx) {
+      tx.pin(blk);
+      tx.setString(blk, offset, newval, false);
       tx.unpin(blk);
    }
 
+   public boolean isCommit() {
+      return false;
+   }
+
    /**
-    * A static method to write a setInt record to the log.
-    * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
+    * A static method to write a setString record to the log.
+    * This log record contains the SETSTRING operator,
+    * followed by the transaction id, the LSN of the transaction's
+    * previous record, the file id, number,
     * and offset of the modified block, and the previous
-    * integer value at that offset.
+    * and new string values at that offset.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
-      int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
-      int bpos = fpos + Page.maxLength(blk.fileName().length());
-      int opos = bpos + Integer.BYTES;
-      int vpos = opos + Integer.BYTES;
-      int reclen = vpos + Page.maxLength(val.length());
-      byte[] rec = new byte[reclen];
-      Page p = new Page(rec);
-      p.setInt(0, SETSTRING);
-      p.setInt(tpos, txnum);
-      p.setString(fpos, blk.fileName());
-      p.setInt(bpos, blk.number());
-      p.setInt(opos, offset);
-      p.setString(vpos, val);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, int txnum, long prevLSN, BlockId blk, int offset,
+         String oldval, String newval) {
+      LogEncoder rec = new LogEncoder(24 + oldval.length() + newval.length());
+      rec.putByte(SETSTRING).putVarint(txnum).putVarint(prevLSN + 1);
+      rec.putVarint(lm.fileId(blk.fileName())).putVarint(blk.number());
+      rec.putVarint(offset).putString(oldval).putString(newval);
+      return lm.append(rec.toByteArray());
    }
-}
\ No newline at end of file
+}
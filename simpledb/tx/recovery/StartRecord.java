@@ -1,7 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 public class StartRecord implements LogRecord {
@@ -9,11 +8,10 @@ public class StartRecord implements LogRecord {
    
    /**
     * Create a log record by reading one other value from the log.
-    * @param bb the bytebuffer containing the log values
+    * @param d the decoder of the record, positioned after its type
     */
-   public StartRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
+   public StartRecord(LogDecoder d) {
+      txnum = d.getInt();
    }
    
    public int op() {
@@ -40,11 +38,15 @@ public class StartRecord implements LogRecord {
     * followed by the transaction id.
     * @return the LSN of the last log value
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, START);
-      p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, int txnum) {
+      LogEncoder rec = new LogEncoder(6);
+      rec.putByte(START).putVarint(txnum);
+      return lm.append(rec.toByteArray());
+   }
+
+   public void redo(Transaction tx) {}
+
+   public boolean isCommit() {
+      return false;
    }
 }
@@ -0,0 +1,24 @@
+package simpledb.tx.recovery;
+
+import simpledb.tx.SlotUpdate;
+
+/**
+ * A log record that changes a page, and so is replayed by the
+ * redo phase of recovery. Each change is described as a
+ * SlotUpdate, so that redo and undo apply every kind of
+ * update record in the same way.
+ */
+interface UpdateRecord extends LogRecord {
+   /**
+    * Return the change that the record made.
+    * @return the new values
+    */
+   SlotUpdate after();
+
+   /**
+    * Return the change that undoes the record,
+    * or null if the record is never undone.
+    * @return the old values
+    */
+   SlotUpdate before();
+}